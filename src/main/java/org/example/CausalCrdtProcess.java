@@ -8,8 +8,9 @@ package org.example;
 import org.m_ld.clocks.CausalClock;
 import org.m_ld.clocks.Message;
 import org.m_ld.clocks.MessageService;
+import org.m_ld.clocks.PooledMessage;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 
 import static org.m_ld.clocks.Message.message;
 
@@ -23,7 +24,7 @@ import static org.m_ld.clocks.Message.message;
 public abstract class CausalCrdtProcess<C extends CausalClock<C>, O>
 {
     private final MessageService<C> messageService;
-    private final LinkedList<Message<C, O>> buffer = new LinkedList<>();
+    private final ArrayDeque<Message<C, O>> buffer = new ArrayDeque<>();
 
     public CausalCrdtProcess(MessageService<C> messageService)
     {
@@ -48,14 +49,34 @@ public abstract class CausalCrdtProcess<C extends CausalClock<C>, O>
         return message(messageService.send(), operation);
     }
 
+    /**
+     * @return the current process time
+     */
+    protected synchronized C time()
+    {
+        return messageService.peek();
+    }
+
     /**
      * Method to be called by the framework to deliver a message from another replica.
+     * <p>
+     * If the message is a {@link PooledMessage}, it is released when it has been merged, so the caller must not use
+     * it again after this call. Duplicate messages are ignored, and not released.
      *
      * @param message the message containing an operation to apply to the CRDT
      */
     public synchronized void receive(Message<C, O> message)
     {
-        if (!messageService.receive(message, buffer, this::merge))
+        // Non-capturing method reference, so that receiving does not allocate
+        if (!messageService.receiveMessage(message, buffer, this, CausalCrdtProcess::mergeMessage))
             throw new IllegalStateException("Buffer overload");
     }
+
+    private static <C extends CausalClock<C>, O> void mergeMessage(CausalCrdtProcess<C, O> process,
+                                                                   Message<C, O> message)
+    {
+        process.merge(message.data());
+        if (message instanceof PooledMessage)
+            ((PooledMessage<C, O>)message).release();
+    }
 }
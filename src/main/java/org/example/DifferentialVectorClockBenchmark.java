@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.Message;
+import org.m_ld.clocks.vector.DifferentialVectorClockMessageService;
+import org.m_ld.clocks.vector.VectorClock;
+import org.m_ld.clocks.vector.VectorClockDelta;
+import org.m_ld.clocks.vector.WireVectorClock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+import static java.lang.String.format;
+import static org.m_ld.clocks.Message.message;
+
+/**
+ * Reports the wire size of full vector clocks and of {@link DifferentialVectorClockMessageService differential}
+ * clocks, in a group in which a number of active processes broadcast to each other, and every process in the group is
+ * known to every vector. The sizes are of Java serialization, with integer process IDs.
+ * <p>
+ * Arguments, all optional: {@code activeProcesses messagesPerSize groupSize...}. Prints one line of tab-separated
+ * values per group size.
+ */
+public class DifferentialVectorClockBenchmark
+{
+    public static void main(String[] args)
+    {
+        final int active = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final int[] sizes = args.length > 2 ?
+            Arrays.stream(args, 2, args.length).mapToInt(Integer::parseInt).toArray() : new int[]{ 10, 100, 2_000 };
+        System.out.println("processes\tactive\tmessages\tfull_bytes\tdelta_bytes\tsaved_bytes_per_msg");
+        for (int size : sizes)
+        {
+            final Map<Integer, Long> vector = new HashMap<>();
+            for (int pid = 0; pid < size; pid++)
+                vector.put(pid, 0L);
+            final List<DifferentialVectorClockMessageService<Integer>> processes = new ArrayList<>();
+            for (int pid = 0; pid < Math.min(active, size); pid++)
+                processes.add(new DifferentialVectorClockMessageService<>(
+                    WireVectorClock.clock(pid, vector), () -> { throw new UnsupportedOperationException(); }));
+
+            final Random random = new Random(42);
+            long fullBytes = 0L, deltaBytes = 0L, sent = 0L;
+            for (int m = 0; m < messages; m++)
+            {
+                final DifferentialVectorClockMessageService<Integer> sender =
+                    processes.get(random.nextInt(processes.size()));
+                final VectorClock<Integer> time = sender.send();
+                final int fullSize = wireSize(time);
+                for (DifferentialVectorClockMessageService<Integer> receiver : processes)
+                {
+                    if (receiver != sender)
+                    {
+                        final VectorClockDelta<Integer> delta = sender.delta(receiver.processId());
+                        fullBytes += fullSize;
+                        deltaBytes += wireSize(delta);
+                        sent++;
+                        final Message<VectorClock<Integer>, Integer> message = message(receiver.expand(delta), m);
+                        if (!receiver.receive(message, new LinkedList<>(), data -> {}))
+                            throw new IllegalStateException("Buffer overload");
+                    }
+                }
+            }
+            System.out.println(format("%d\t%d\t%d\t%.1f\t%.1f\t%.1f", size, processes.size(), messages,
+                                      (double)fullBytes / sent, (double)deltaBytes / sent,
+                                      (double)(fullBytes - deltaBytes) / sent));
+        }
+    }
+
+    private static int wireSize(Object clock)
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(clock);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.size();
+    }
+}
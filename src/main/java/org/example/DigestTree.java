@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A hash tree (Merkle tree) over a fixed number of buckets, for comparing the content of replicas.
+ * <p>
+ * Each bucket digest is the XOR of the hashes of the items in the bucket, and each parent node is the XOR of its
+ * children, so the tree can be updated in {@code O(depth)} as items come and go, and the root is an order-independent
+ * digest of the whole content.
+ * <p>
+ * Nodes are identified by their index in a heap layout: the root is {@link #ROOT}, the children of node {@code n} are
+ * {@code 2n} and {@code 2n + 1}, and the leaves are the nodes {@code buckets..2 * buckets - 1}.
+ * <p>
+ * This class is not thread-safe.
+ */
+class DigestTree
+{
+    static final int ROOT = 1;
+    private final int depth;
+    private final long[] nodes;
+
+    DigestTree(int depth)
+    {
+        if (depth < 0 || depth > 24)
+            throw new IllegalArgumentException("Digest tree depth must be between 0 and 24");
+
+        this.depth = depth;
+        this.nodes = new long[2 << depth];
+    }
+
+    /**
+     * @param element an element. Its {@link Object#hashCode()} must be consistent between replicas.
+     * @return the bucket in which the element belongs
+     */
+    int bucket(Object element)
+    {
+        return depth == 0 ? 0 : (Objects.hashCode(element) * 0x9E3779B9) >>> (32 - depth);
+    }
+
+    /**
+     * Adds or removes the given item hash from the given bucket.
+     */
+    void toggle(int bucket, long hash)
+    {
+        for (int node = leaf(bucket); node >= ROOT; node >>>= 1)
+            nodes[node] ^= hash;
+    }
+
+    long digest(int node)
+    {
+        return nodes[node];
+    }
+
+    boolean isLeaf(int node)
+    {
+        return node >= nodes.length >>> 1;
+    }
+
+    /**
+     * @return the first bucket under the given node, inclusive
+     */
+    int firstBucket(int node)
+    {
+        while (!isLeaf(node))
+            node <<= 1;
+        return node - (nodes.length >>> 1);
+    }
+
+    /**
+     * @return the last bucket under the given node, inclusive
+     */
+    int lastBucket(int node)
+    {
+        while (!isLeaf(node))
+            node = (node << 1) + 1;
+        return node - (nodes.length >>> 1);
+    }
+
+    void clear()
+    {
+        Arrays.fill(nodes, 0L);
+    }
+
+    /**
+     * @return a well-mixed hash of an element and one of its tags
+     */
+    static long hash(Object element, UUID id)
+    {
+        // SplitMix64 finaliser
+        long z = id.getMostSignificantBits() ^ Long.rotateLeft(id.getLeastSignificantBits(), 32) ^
+            Objects.hashCode(element) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private int leaf(int bucket)
+    {
+        return (nodes.length >>> 1) + bucket;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.Message;
+import org.m_ld.clocks.tree.TreeClock;
+import org.m_ld.clocks.tree.TreeClockMessageService;
+import org.m_ld.clocks.vector.SyncVectorClockMessageService;
+import org.m_ld.clocks.vector.VectorClock;
+import org.m_ld.clocks.vector.WireVectorClock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+import static java.lang.String.format;
+import static org.m_ld.clocks.Message.message;
+
+/**
+ * Reports the memory footprint of clocks, buffered messages and OR-Sets, for a number of process or element counts.
+ * Prints one line per measurement, as tab-separated values of subject, size, metric and value, for use in capacity
+ * planning and regression checks.
+ * <p>
+ * The metrics are:
+ * <ul>
+ * <li>{@code retained_bytes}: the heap retained by one instance of the subject, measured as the difference in used
+ * heap after garbage collection when holding many independently-built instances. This is an approximation, so the
+ * report should be run with a fixed heap size and without other activity in the JVM.</li>
+ * <li>{@code wire_bytes}: the Java-serialized size of a clock, as would be attached to a message.</li>
+ * <li>{@code alloc_bytes_per_op}: the bytes allocated by the current thread per churn operation, as reported by the
+ * JVM; not reported if the JVM does not support thread allocation counting.</li>
+ * </ul>
+ */
+public class FootprintReport
+{
+    private static final int CHURN_OPS = 10_000;
+    private static final int RETAINED_BUDGET = 200_000;
+    private static final int BUFFERED_MESSAGES = 100_000;
+    private static volatile Object held;
+
+    public static void main(String[] args)
+    {
+        final int[] sizes = args.length > 0 ?
+            Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : new int[]{ 10, 100, 1_000 };
+        System.out.println("subject\tsize\tmetric\tvalue");
+        for (int size : sizes)
+        {
+            final int copies = Math.max(8, RETAINED_BUDGET / size);
+
+            // A tree clock service which has forked and heard from the given number of processes
+            report("tree-clock", size, "retained_bytes", retained(i -> treeClockService(size).service, copies));
+            final TreeClockChurn tree = treeClockService(size);
+            report("tree-clock", size, "wire_bytes", wireSize(tree.service.peek()));
+            reportAllocation("tree-clock", size, tree::churn);
+
+            // A vector clock service which has forked and heard from the given number of processes
+            report("vector-clock", size, "retained_bytes", retained(i -> vectorClockService(size).service, copies));
+            final VectorClockChurn vector = vectorClockService(size);
+            report("vector-clock", size, "wire_bytes", wireSize(vector.service.peek()));
+            reportAllocation("vector-clock", size, vector::churn);
+
+            // The marginal cost of a buffered message, having a tree clock for the given number of processes
+            final TreeClockChurn sender = treeClockService(size);
+            report("buffered-message", size, "retained_bytes", retained(i -> {
+                final List<Message<TreeClock, Integer>> buffer = new LinkedList<>();
+                for (int m = 0; m < BUFFERED_MESSAGES; m++)
+                    buffer.add(message(sender.service.send(), m));
+                return buffer;
+            }, 1) / BUFFERED_MESSAGES);
+
+            // An OR-Set with the given number of elements, reported per element
+            report("or-set-element", size, "retained_bytes", retained(i -> orSet(size), copies) / size);
+            final OrSet<Integer> orSet = orSet(size);
+            reportAllocation("or-set-element", size, i -> {
+                orSet.remove(i % size);
+                orSet.add(i % size);
+                return i;
+            });
+        }
+    }
+
+    private static class TreeClockChurn
+    {
+        final TreeClockMessageService service = new TreeClockMessageService(TreeClock.GENESIS);
+        final TreeClock[] remotes;
+
+        /**
+         * Each process is forked from an earlier one in breadth-first order, so that the clock tree is balanced. (A
+         * chain of forks from a single process would produce a tree as deep as the number of processes.)
+         */
+        TreeClockChurn(int processes)
+        {
+            remotes = new TreeClock[processes];
+            for (int p = 0; p < processes; p++)
+            {
+                if (p == 0)
+                {
+                    remotes[p] = service.fork();
+                }
+                else
+                {
+                    final TreeClock.Fork fork = remotes[(p - 1) / 2].fork();
+                    remotes[(p - 1) / 2] = fork.left;
+                    remotes[p] = fork.right;
+                }
+                churn(p);
+            }
+        }
+
+        /**
+         * Joins the next tick of a remote process and sends a message.
+         */
+        int churn(int p)
+        {
+            p %= remotes.length;
+            service.join(remotes[p] = remotes[p].tick());
+            return service.send().hashCode();
+        }
+    }
+
+    private static class VectorClockChurn
+    {
+        final SyncVectorClockMessageService<UUID> service = new SyncVectorClockMessageService<>(UUID::randomUUID);
+        final List<WireVectorClock<UUID>> remotes = new ArrayList<>();
+
+        VectorClockChurn(int processes)
+        {
+            for (int p = 0; p < processes; p++)
+            {
+                final VectorClock<UUID> remote = service.fork();
+                remotes.add(WireVectorClock.clock(remote.processId(), remote.vector()));
+                churn(p);
+            }
+        }
+
+        /**
+         * Joins the next tick of a remote process and sends a message.
+         */
+        int churn(int p)
+        {
+            final WireVectorClock<UUID> remote = remotes.get(p % remotes.size());
+            final WireVectorClock<UUID> ticked = remote.with(remote.processId(), remote.ticks(remote.processId()) + 1);
+            remotes.set(p % remotes.size(), ticked);
+            service.join(ticked);
+            return service.send().hashCode();
+        }
+    }
+
+    private static TreeClockChurn treeClockService(int processes)
+    {
+        return new TreeClockChurn(processes);
+    }
+
+    private static VectorClockChurn vectorClockService(int processes)
+    {
+        return new VectorClockChurn(processes);
+    }
+
+    private static OrSet<Integer> orSet(int elements)
+    {
+        final OrSet<Integer> orSet = new OrSet<>();
+        for (int e = 0; e < elements; e++)
+            orSet.add(e);
+        return orSet;
+    }
+
+    private static void report(String subject, int size, String metric, double value)
+    {
+        System.out.println(format("%s\t%d\t%s\t%.1f", subject, size, metric, value));
+    }
+
+    private static void reportAllocation(String subject, int size, IntUnaryOperator op)
+    {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean &&
+            ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported())
+        {
+            final com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean)threads;
+            final long thread = Thread.currentThread().getId();
+            int result = 0;
+            for (int i = 0; i < CHURN_OPS; i++) // Warm up
+                result += op.applyAsInt(i);
+            final long before = allocation.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < CHURN_OPS; i++)
+                result += op.applyAsInt(i);
+            final long after = allocation.getThreadAllocatedBytes(thread);
+            held = result;
+            report(subject, size, "alloc_bytes_per_op", (double)(after - before) / CHURN_OPS);
+        }
+    }
+
+    /**
+     * @return the average heap retained by each of the given number of instances
+     */
+    private static double retained(IntFunction<Object> factory, int copies)
+    {
+        final Object[] instances = new Object[copies];
+        final long before = usedHeap();
+        for (int i = 0; i < copies; i++)
+            instances[i] = factory.apply(i);
+        held = instances; // Ensure the instances are reachable during measurement
+        final long after = usedHeap();
+        held = null;
+        return (double)(after - before) / copies;
+    }
+
+    private static long usedHeap()
+    {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        // Collect until the used heap stops shrinking
+        for (int i = 0; i < 10; i++)
+        {
+            memory.gc();
+            final long nowUsed = memory.getHeapMemoryUsage().getUsed();
+            if (nowUsed >= used)
+                break;
+            used = nowUsed;
+        }
+        return used;
+    }
+
+    private static int wireSize(Object clock)
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(clock);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.size();
+    }
+}
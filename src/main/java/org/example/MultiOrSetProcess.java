@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.CausalClock;
+import org.m_ld.clocks.Message;
+import org.m_ld.clocks.MessageService;
+
+import java.util.*;
+
+/**
+ * An example process hosting replicas of many OR-Set documents, which share a single clock and a single message
+ * stream. Local updates to any of the documents are collected into one frame, which is sent with one clock tick when
+ * {@link #flush() flushed}. Received frames are delivered in causal order and then applied to each document.
+ * <p>
+ * All replicas of a group of documents must be hosted by processes sharing the same document keys, since causal
+ * delivery is determined for the group as a whole.
+ *
+ * @param <C> the message clock type. Must guarantee causal ordering
+ * @param <K> the document key type
+ * @param <E> the set element type
+ */
+public class MultiOrSetProcess<C extends CausalClock<C>, K, E>
+    extends CausalCrdtProcess<C, Map<K, List<OrSet.Operation<E>>>>
+{
+    private final Map<K, OrSet<E>> documents = new HashMap<>();
+    private final Map<K, List<OrSet.Operation<E>>> frame = new LinkedHashMap<>();
+
+    public MultiOrSetProcess(MessageService<C> messageService)
+    {
+        super(messageService);
+    }
+
+    /**
+     * @param document the document key
+     * @return a snapshot of the elements in the document
+     */
+    public synchronized Set<E> elements(K document)
+    {
+        final OrSet<E> orSet = documents.get(document);
+        return orSet == null ? Collections.emptySet() : orSet.elements();
+    }
+
+    /**
+     * @param document the document key
+     * @param element  the element to add to the document
+     * @return {@code true} if the document was changed, and the change will be sent on the next flush
+     */
+    public synchronized boolean add(K document, E element)
+    {
+        return framed(document, document(document).add(element));
+    }
+
+    /**
+     * @param document the document key
+     * @param element  the element to remove from the document
+     * @return {@code true} if the document was changed, and the change will be sent on the next flush
+     */
+    public synchronized boolean remove(K document, E element)
+    {
+        // Removing from an unknown document does not create it
+        final OrSet<E> orSet = documents.get(document);
+        return orSet != null && framed(document, orSet.remove(element));
+    }
+
+    /**
+     * Sends the current frame of local operations, for all documents, if any.
+     *
+     * @return a message containing the operations for each changed document, or empty if there is nothing to send
+     */
+    public synchronized Optional<Message<C, Map<K, List<OrSet.Operation<E>>>>> flush()
+    {
+        if (frame.isEmpty())
+            return Optional.empty();
+
+        final Map<K, List<OrSet.Operation<E>>> ops = new LinkedHashMap<>(frame);
+        frame.clear();
+        return Optional.of(updated(ops));
+    }
+
+    @Override protected void merge(Map<K, List<OrSet.Operation<E>>> operation)
+    {
+        operation.forEach((document, ops) -> document(document).apply(ops));
+    }
+
+    private OrSet<E> document(K document)
+    {
+        return documents.computeIfAbsent(document, k -> new OrSet<>());
+    }
+
+    private boolean framed(K document, Optional<List<OrSet.Operation<E>>> ops)
+    {
+        ops.ifPresent(list -> frame.computeIfAbsent(document, k -> new ArrayList<>()).addAll(list));
+        return ops.isPresent();
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.CausalClock;
+import org.m_ld.clocks.CausalOrder;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static java.util.UUID.randomUUID;
+import static org.example.OrSet.Operation.Type.ADD;
+import static org.example.OrSet.Operation.Type.REMOVE;
+
+/**
+ * A multi-version OR-Set, from which readers can take a {@link Snapshot} of the elements as of the current or an
+ * earlier clock, and iterate it without locking while writers continue.
+ * <p>
+ * Every list of operations applied creates a new version, which is stamped with the process clock at which the
+ * operations were applied. Tags are never modified in place: an add creates a tag visible from its version onwards,
+ * and a remove marks the tag invisible from its version onwards. A removed tag is discarded when no open snapshot, and
+ * no retained version, can see it.
+ * <p>
+ * Writes are serialised by this object's monitor. Taking and closing a snapshot also briefly hold the monitor, but
+ * reading a snapshot does not.
+ *
+ * @param <C> the process clock type
+ * @param <E> the set element type
+ */
+public class MvccOrSet<C extends CausalClock<C>, E>
+{
+    private final Map<E, Tag[]> elementTags = new ConcurrentHashMap<>();
+    private final ArrayDeque<Version<C>> versions = new ArrayDeque<>();
+    private final int retainedVersions;
+    private final TreeMap<Long, Integer> readers = new TreeMap<>();
+    private final ArrayDeque<Removal<E>> removals = new ArrayDeque<>();
+    private volatile Version<C> latest;
+
+    private static class Tag
+    {
+        final UUID id;
+        final long added;
+        volatile long removed = Long.MAX_VALUE;
+
+        Tag(UUID id, long added)
+        {
+            this.id = id;
+            this.added = added;
+        }
+
+        boolean visibleAt(long version)
+        {
+            return added <= version && removed > version;
+        }
+    }
+
+    private static class Version<C>
+    {
+        final long number;
+        final C time;
+
+        Version(long number, C time)
+        {
+            this.number = number;
+            this.time = time;
+        }
+    }
+
+    private static class Removal<E>
+    {
+        final E element;
+        final Tag tag;
+
+        Removal(E element, Tag tag)
+        {
+            this.element = element;
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * A read-only view of the elements of the set at some version. Snapshots must be closed, so that the tags that
+     * they can see can be discarded.
+     */
+    public class Snapshot implements Iterable<E>, AutoCloseable
+    {
+        private final Version<C> version;
+        private volatile boolean closed = false;
+
+        private Snapshot(Version<C> version)
+        {
+            this.version = version;
+        }
+
+        /**
+         * @return the process clock at which the operations seen by this snapshot had been applied
+         */
+        public C time()
+        {
+            return version.time;
+        }
+
+        public boolean contains(E element)
+        {
+            checkOpen();
+            return visible(elementTags.get(element), version.number);
+        }
+
+        public Stream<E> stream()
+        {
+            checkOpen();
+            return elementTags.entrySet().stream()
+                .filter(entry -> visible(entry.getValue(), version.number))
+                .map(Map.Entry::getKey);
+        }
+
+        @Override public Iterator<E> iterator()
+        {
+            return stream().iterator();
+        }
+
+        private void checkOpen()
+        {
+            // Tags removed after this version may have been discarded
+            if (closed)
+                throw new IllegalStateException("Snapshot is closed");
+        }
+
+        @Override public void close()
+        {
+            synchronized (MvccOrSet.this)
+            {
+                if (!closed)
+                {
+                    closed = true;
+                    if (readers.merge(version.number, -1, Integer::sum) == 0)
+                        readers.remove(version.number);
+                    discard();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param time             the initial process clock
+     * @param retainedVersions the number of versions before the latest, from which a snapshot can be taken even
+     *                         if no reader currently holds them
+     */
+    public MvccOrSet(C time, int retainedVersions)
+    {
+        if (retainedVersions < 0)
+            throw new IllegalArgumentException("Retained versions cannot be negative");
+
+        this.retainedVersions = retainedVersions;
+        this.latest = new Version<>(0L, time);
+        this.versions.add(latest);
+    }
+
+    /**
+     * @return a snapshot of the latest version
+     */
+    public synchronized Snapshot snapshot()
+    {
+        return open(latest);
+    }
+
+    /**
+     * @param asOf a clock, for example the current clock of another process
+     * @return a snapshot of the latest retained version whose operations had all been seen at the given clock, if
+     * there is one
+     */
+    public synchronized Optional<Snapshot> snapshot(C asOf)
+    {
+        for (Iterator<Version<C>> iterator = versions.descendingIterator(); iterator.hasNext(); )
+        {
+            final Version<C> version = iterator.next();
+            final CausalOrder order = version.time.compare(asOf);
+            if (order == CausalOrder.BEFORE || order == CausalOrder.EQUAL)
+                return Optional.of(open(version));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the elements of the latest version
+     */
+    public Set<E> elements()
+    {
+        try (Snapshot snapshot = snapshot())
+        {
+            final Set<E> elements = new HashSet<>();
+            snapshot.forEach(elements::add);
+            return elements;
+        }
+    }
+
+    /**
+     * @param element an element to add
+     * @return the operations to add the element, if it is not present in the latest version. The operations are
+     * not applied.
+     */
+    public synchronized Optional<List<OrSet.Operation<E>>> addOperations(E element)
+    {
+        return visible(elementTags.get(element), latest.number) ? Optional.empty() :
+            Optional.of(Collections.singletonList(new OrSet.Operation<>(ADD, randomUUID(), element)));
+    }
+
+    /**
+     * @param element an element to remove
+     * @return the operations to remove the element, if it is present in the latest version. The operations are not
+     * applied.
+     */
+    public synchronized Optional<List<OrSet.Operation<E>>> removeOperations(E element)
+    {
+        final List<OrSet.Operation<E>> ops = new ArrayList<>();
+        for (Tag tag : elementTags.getOrDefault(element, new Tag[0]))
+            if (tag.visibleAt(latest.number))
+                ops.add(new OrSet.Operation<>(REMOVE, tag.id, element));
+        return ops.isEmpty() ? Optional.empty() : Optional.of(ops);
+    }
+
+    /**
+     * Applies operations as a new version.
+     *
+     * @param time the process clock at which the operations are applied. Must not be before the time of any
+     *             previous version.
+     * @param ops  the operations to apply
+     */
+    public synchronized void apply(C time, List<OrSet.Operation<E>> ops)
+    {
+        final long number = latest.number + 1;
+        for (OrSet.Operation<E> op : ops)
+        {
+            final Tag[] tags = elementTags.get(op.element);
+            final Tag tag = find(tags, op.id);
+            if (op.type == ADD && tag == null)
+            {
+                final Tag[] added = tags == null ? new Tag[1] : Arrays.copyOf(tags, tags.length + 1);
+                added[added.length - 1] = new Tag(op.id, number);
+                elementTags.put(op.element, added);
+            }
+            else if (op.type == REMOVE && tag != null && tag.removed == Long.MAX_VALUE)
+            {
+                tag.removed = number;
+                removals.add(new Removal<>(op.element, tag));
+            }
+        }
+        // Publish the version only when all its tags are in place
+        latest = new Version<>(number, time);
+        versions.add(latest);
+        discard();
+    }
+
+    /**
+     * @return the number of removed tags which have not yet been discarded
+     */
+    synchronized int removedTags()
+    {
+        return removals.size();
+    }
+
+    private Snapshot open(Version<C> version)
+    {
+        readers.merge(version.number, 1, Integer::sum);
+        return new Snapshot(version);
+    }
+
+    /**
+     * Discards removed tags which cannot be seen by any open snapshot or retained version.
+     */
+    private void discard()
+    {
+        while (versions.size() > retainedVersions + 1)
+            versions.removeFirst();
+        long horizon = versions.getFirst().number;
+        if (!readers.isEmpty())
+            horizon = Math.min(horizon, readers.firstKey());
+
+        while (!removals.isEmpty() && removals.getFirst().tag.removed <= horizon)
+        {
+            final Removal<E> removal = removals.removeFirst();
+            final Tag[] tags = elementTags.get(removal.element);
+            if (tags.length == 1)
+            {
+                elementTags.remove(removal.element);
+            }
+            else
+            {
+                final Tag[] remaining = new Tag[tags.length - 1];
+                for (int i = 0, j = 0; i < tags.length; i++)
+                    if (tags[i] != removal.tag)
+                        remaining[j++] = tags[i];
+                elementTags.put(removal.element, remaining);
+            }
+        }
+    }
+
+    private static Tag find(Tag[] tags, UUID id)
+    {
+        if (tags != null)
+            for (Tag tag : tags)
+                if (tag.id.equals(id))
+                    return tag;
+        return null;
+    }
+
+    private static boolean visible(Tag[] tags, long version)
+    {
+        if (tags != null)
+            for (Tag tag : tags)
+                if (tag.visibleAt(version))
+                    return true;
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.CausalClock;
+import org.m_ld.clocks.Message;
+import org.m_ld.clocks.MessageService;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * An OR-Set process whose state is a {@link MvccOrSet}, so that readers can take snapshots at the current or an
+ * earlier process clock, and read them without blocking writes or the delivery of messages. Every local update and
+ * every delivered message creates a new version, stamped with the process clock.
+ *
+ * @param <C> the message clock type. Must guarantee causal ordering
+ * @param <E> the set element type
+ */
+public class MvccOrSetProcess<C extends CausalClock<C>, E> extends CausalCrdtProcess<C, List<OrSet.Operation<E>>>
+    implements SetProxy<E, Optional<Message<C, List<OrSet.Operation<E>>>>>
+{
+    private final MvccOrSet<C, E> orSet;
+
+    /**
+     * @param messageService   the message service for this process
+     * @param retainedVersions the number of versions before the latest from which a snapshot can be taken
+     * @see MvccOrSet#MvccOrSet(CausalClock, int)
+     */
+    public MvccOrSetProcess(MessageService<C> messageService, int retainedVersions)
+    {
+        super(messageService);
+        this.orSet = new MvccOrSet<>(messageService.peek(), retainedVersions);
+    }
+
+    /**
+     * Does not block on the process.
+     */
+    @Override public Set<E> elements()
+    {
+        return orSet.elements();
+    }
+
+    /**
+     * Does not block on the process, except while registering the snapshot.
+     *
+     * @return a snapshot of the set at the latest process clock. Must be closed.
+     */
+    public MvccOrSet<C, E>.Snapshot snapshot()
+    {
+        return orSet.snapshot();
+    }
+
+    /**
+     * Does not block on the process, except while registering the snapshot.
+     *
+     * @param asOf a clock, for example the current clock of another process
+     * @return a snapshot of the set as of the latest retained version that had been seen at the given clock, if
+     * there is one. Must be closed.
+     */
+    public Optional<MvccOrSet<C, E>.Snapshot> snapshot(C asOf)
+    {
+        return orSet.snapshot(asOf);
+    }
+
+    @Override public synchronized Optional<Message<C, List<OrSet.Operation<E>>>> add(E element)
+    {
+        return orSet.addOperations(element).map(this::update);
+    }
+
+    @Override public synchronized Optional<Message<C, List<OrSet.Operation<E>>>> remove(E element)
+    {
+        return orSet.removeOperations(element).map(this::update);
+    }
+
+    @Override protected void merge(List<OrSet.Operation<E>> operation)
+    {
+        orSet.apply(time(), operation);
+    }
+
+    private Message<C, List<OrSet.Operation<E>>> update(List<OrSet.Operation<E>> ops)
+    {
+        final Message<C, List<OrSet.Operation<E>>> message = updated(ops);
+        orSet.apply(message.time(), ops);
+        return message;
+    }
+}
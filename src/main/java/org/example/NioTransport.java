@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * An example non-blocking transport for a group of processes, using TCP connections between every pair of processes.
+ * <p>
+ * Each message is broadcast to every connected peer. Outgoing messages are queued per peer, and written in frames of
+ * many messages with a single gathering write. The message parts, such as a clock and a payload, are written directly
+ * from the caller's buffers, which may be pooled direct buffers; the frame and message length prefixes are written
+ * from a direct buffer which is re-used for every frame to the peer. A frame is written when it reaches a maximum
+ * number of messages or bytes, when its oldest message reaches a maximum age (the <i>linger</i> time), or when
+ * {@link #flush()} is called. The queue for each peer is bounded: a sender blocks while the queue for any connected
+ * peer is full, so that a slow peer applies back-pressure rather than exhausting memory.
+ * <p>
+ * Since each peer connection is a FIFO channel, messages from each sender are received in the order they were sent,
+ * as is required by a {@link org.m_ld.clocks.MessageService}. Received frames are handed whole to the frame
+ * handler, on the transport thread, so the handler must not block; for example, it may publish each message into a
+ * {@link org.m_ld.clocks.ReceivePipeline}. The received messages are read-only slices of the connection's read
+ * buffer, which are only valid until the handler returns; a handler which retains a message must copy it.
+ * <p>
+ * Wire format: each frame is {@code [frame length][message count]([message length][message bytes])*}, with lengths
+ * and counts as big-endian 32-bit integers, and the frame length excluding itself.
+ */
+public class NioTransport implements Closeable
+{
+    private static final int INT = Integer.BYTES;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Consumer<? super List<ByteBuffer>> frameHandler;
+    private final Consumer<? super Exception> errorHandler;
+    private final int maxFrameMessages, maxFrameBytes, maxQueuedMessages;
+    private final long lingerNanos;
+    private final List<Outbound> outbounds = new CopyOnWriteArrayList<>();
+    private final Queue<Outbound> connecting = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true, flushRequested = false;
+
+    /**
+     * Creates and starts a transport, listening for connections from peers.
+     *
+     * @param address          the local address to listen on; a zero port selects an ephemeral port
+     * @param frameHandler     receives the messages of each frame received from a peer, in order
+     * @param errorHandler     receives any exception from a peer connection or from the frame handler. A connection
+     *                         which fails is closed.
+     * @param maxFrameMessages the number of queued messages at which a frame is written
+     * @param maxFrameBytes    the number of queued message bytes at which a frame is written
+     * @param lingerNanos      the age of the oldest queued message at which a frame is written. Zero causes every
+     *                         message to be written as soon as possible, batching only messages which are sent while
+     *                         a previous frame is being written.
+     * @param maxQueuedMessages the number of queued messages for a peer at which senders block, at least
+     *                         {@code maxFrameMessages}
+     */
+    public NioTransport(InetSocketAddress address,
+                        Consumer<? super List<ByteBuffer>> frameHandler,
+                        Consumer<? super Exception> errorHandler,
+                        int maxFrameMessages,
+                        int maxFrameBytes,
+                        long lingerNanos,
+                        int maxQueuedMessages) throws IOException
+    {
+        if (maxFrameMessages < 1 || maxFrameBytes < 1)
+            throw new IllegalArgumentException("Frame must allow at least one message");
+        if (maxQueuedMessages < maxFrameMessages)
+            throw new IllegalArgumentException("Queue must allow at least one frame");
+
+        this.frameHandler = frameHandler;
+        this.errorHandler = errorHandler;
+        this.maxFrameMessages = maxFrameMessages;
+        this.maxFrameBytes = maxFrameBytes;
+        this.lingerNanos = lingerNanos;
+        this.maxQueuedMessages = maxQueuedMessages;
+
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        this.thread = new Thread(this::run, "transport-" + address());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the address on which this transport is listening for peers
+     */
+    public InetSocketAddress address()
+    {
+        try
+        {
+            return (InetSocketAddress)server.getLocalAddress();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Connects to a peer, to which all subsequently sent messages will be sent. Returns when the connection is ready.
+     *
+     * @param peer    the address of the peer transport
+     * @param timeout the maximum time to wait for the connection to be ready
+     * @param unit    the unit of the timeout
+     * @throws SocketTimeoutException if the connection is not ready within the timeout
+     */
+    public void connect(InetSocketAddress peer, long timeout, TimeUnit unit) throws IOException, InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final SocketChannel channel = SocketChannel.open();
+        try
+        {
+            channel.socket().connect(peer, (int)Math.max(1L, unit.toMillis(timeout)));
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            final Outbound outbound = new Outbound(channel);
+            connecting.add(outbound);
+            selector.wakeup();
+            if (!outbound.registered.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+                throw new SocketTimeoutException("Transport did not register connection to " + peer);
+        }
+        catch (IOException | InterruptedException | RuntimeException e)
+        {
+            // The transport thread skips and removes a closed connection
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a message to all connected peers. May be called from any thread. The message is the concatenation of the
+     * remaining bytes of the given parts, which must not be modified until the message has been written.
+     * <p>
+     * Blocks while the queue for any peer is full. A peer whose connection fails, or the closing of this transport,
+     * releases any blocked sender.
+     *
+     * @param parts the parts of the message, e.g. a clock and a payload
+     * @throws InterruptedException if interrupted while waiting for a peer queue
+     */
+    public void send(ByteBuffer... parts) throws InterruptedException
+    {
+        int length = 0;
+        for (ByteBuffer part : parts)
+            length += part.remaining();
+
+        boolean wakeup = lingerNanos == 0;
+        for (Outbound outbound : outbounds)
+            wakeup |= outbound.enqueue(parts, length);
+        if (wakeup)
+            selector.wakeup();
+    }
+
+    /**
+     * Requests that all queued messages are written as soon as possible, without waiting for the linger time.
+     */
+    public void flush()
+    {
+        flushRequested = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the transport and closes all connections. Queued messages are discarded.
+     */
+    @Override public void close() throws IOException
+    {
+        running = false;
+        selector.wakeup();
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys())
+            key.channel().close();
+        selector.close();
+    }
+
+    private void run()
+    {
+        try
+        {
+            while (running)
+            {
+                final long nanos = flushAll();
+                if (nanos < 0)
+                    selector.select();
+                else if (nanos == 0)
+                    selector.selectNow();
+                else
+                    selector.select(Math.max(1L, nanos / 1_000_000L));
+
+                for (Outbound outbound; (outbound = connecting.poll()) != null; )
+                {
+                    try
+                    {
+                        outbound.key = outbound.channel.register(selector, 0, outbound);
+                        outbounds.add(outbound);
+                        outbound.registered.countDown();
+                    }
+                    catch (ClosedChannelException e)
+                    {
+                        // The connecting thread timed out
+                    }
+                }
+
+                for (Iterator<SelectionKey> keys = selector.selectedKeys().iterator(); keys.hasNext(); )
+                {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    try
+                    {
+                        if (!key.isValid())
+                            continue;
+                        if (key.isAcceptable())
+                            accept();
+                        else if (key.isReadable())
+                            ((Inbound)key.attachment()).read(key);
+                        else if (key.isWritable())
+                            ((Outbound)key.attachment()).write();
+                    }
+                    catch (IOException e)
+                    {
+                        if (key.attachment() instanceof Outbound)
+                            remove((Outbound)key.attachment());
+                        key.channel().close();
+                        errorHandler.accept(e);
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            errorHandler.accept(e);
+        }
+        finally
+        {
+            // Release any blocked senders
+            for (Outbound outbound : outbounds)
+                outbound.release();
+        }
+    }
+
+    private void remove(Outbound outbound)
+    {
+        outbounds.remove(outbound);
+        outbound.release();
+    }
+
+    private void accept() throws IOException
+    {
+        final SocketChannel channel = server.accept();
+        if (channel != null)
+        {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Inbound());
+        }
+    }
+
+    /**
+     * Writes frames to all peers which are ready for them.
+     *
+     * @return the nanoseconds until the next frame will be ready, or -1 if there are no queued messages
+     */
+    private long flushAll()
+    {
+        final boolean flush = flushRequested;
+        flushRequested = false;
+        final long now = System.nanoTime();
+        long next = -1;
+        for (Outbound outbound : outbounds)
+        {
+            try
+            {
+                while (outbound.frame == null && outbound.ready(flush, now))
+                {
+                    outbound.nextFrame();
+                    outbound.write();
+                }
+                if (outbound.frame == null && outbound.queued.get() > 0)
+                    next = Math.max(0, Math.min(next < 0 ? Long.MAX_VALUE : next,
+                                                outbound.oldest + lingerNanos - now));
+            }
+            catch (IOException e)
+            {
+                remove(outbound);
+                outbound.key.cancel();
+                errorHandler.accept(e);
+            }
+        }
+        return next;
+    }
+
+    private class Outbound
+    {
+        final SocketChannel channel;
+        final CountDownLatch registered = new CountDownLatch(1);
+        final Queue<ByteBuffer[]> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicLong queuedBytes = new AtomicLong();
+        final ByteBuffer header = ByteBuffer.allocateDirect(INT * (2 + maxFrameMessages));
+        volatile long oldest;
+        volatile int waiting; // The number of senders waiting for the queue, modified only under the monitor
+        volatile boolean released;
+        SelectionKey key;
+        ByteBuffer[] frame; // The frame being written, if any
+        int written; // The number of frame buffers completely written
+
+        Outbound(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        /**
+         * @return {@code true} if the transport thread should be woken to write a frame
+         */
+        boolean enqueue(ByteBuffer[] parts, int length) throws InterruptedException
+        {
+            if (queued.get() >= maxQueuedMessages && !awaitSpace())
+                return false;
+            final ByteBuffer[] message = new ByteBuffer[parts.length];
+            for (int i = 0; i < parts.length; i++)
+                message[i] = parts[i].duplicate();
+            queue.add(message);
+            final long bytes = queuedBytes.addAndGet(length);
+            final int count = queued.incrementAndGet();
+            if (count == 1)
+                oldest = System.nanoTime();
+            // Wake on the first message, to start the linger timer
+            return count == 1 || count == maxFrameMessages || bytes - length < maxFrameBytes && bytes >= maxFrameBytes;
+        }
+
+        /**
+         * @return {@code false} if the peer was released while waiting, so the message should not be queued
+         */
+        private synchronized boolean awaitSpace() throws InterruptedException
+        {
+            waiting++;
+            try
+            {
+                // The queue is full, so a frame is ready; wake the transport in case it is waiting to linger
+                selector.wakeup();
+                while (queued.get() >= maxQueuedMessages && !released)
+                    wait();
+                return !released;
+            }
+            finally
+            {
+                waiting--;
+            }
+        }
+
+        synchronized void release()
+        {
+            released = true;
+            notifyAll();
+        }
+
+        boolean ready(boolean flush, long now)
+        {
+            final int count = queued.get();
+            return count > 0 && (flush || count >= maxFrameMessages || queuedBytes.get() >= maxFrameBytes ||
+                now - oldest >= lingerNanos);
+        }
+
+        void nextFrame()
+        {
+            final List<ByteBuffer> buffers = new ArrayList<>();
+            header.clear();
+            buffers.add(slice(0, 2 * INT));
+            int count = 0, length = INT;
+            for (ByteBuffer[] message; count < maxFrameMessages && length < maxFrameBytes &&
+                (message = queue.poll()) != null; count++)
+            {
+                int messageLength = 0;
+                for (ByteBuffer part : message)
+                    messageLength += part.remaining();
+                header.putInt(INT * (2 + count), messageLength);
+                buffers.add(slice(INT * (2 + count), INT));
+                for (ByteBuffer part : message)
+                    buffers.add(part);
+                length += INT + messageLength;
+                queued.decrementAndGet();
+                queuedBytes.addAndGet(-messageLength);
+            }
+            header.putInt(0, length);
+            header.putInt(INT, count);
+            if (queued.get() > 0)
+                oldest = System.nanoTime();
+            frame = buffers.toArray(new ByteBuffer[0]);
+            written = 0;
+            if (waiting > 0)
+            {
+                synchronized (this)
+                {
+                    notifyAll();
+                }
+            }
+        }
+
+        void write() throws IOException
+        {
+            channel.write(frame, written, frame.length - written);
+            while (written < frame.length && !frame[written].hasRemaining())
+                written++;
+            if (written == frame.length)
+                frame = null;
+            key.interestOps(frame == null ? 0 : SelectionKey.OP_WRITE);
+        }
+
+        private ByteBuffer slice(int position, int length)
+        {
+            final ByteBuffer slice = header.duplicate();
+            slice.limit(position + length).position(position);
+            return slice;
+        }
+    }
+
+    private class Inbound
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(maxFrameBytes, 1 << 16));
+
+        void read(SelectionKey key) throws IOException
+        {
+            if (((SocketChannel)key.channel()).read(buffer) < 0)
+            {
+                key.channel().close();
+                return;
+            }
+            buffer.flip();
+            while (buffer.remaining() >= INT)
+            {
+                final int frameLength = buffer.getInt(buffer.position());
+                if (buffer.remaining() < INT + frameLength)
+                {
+                    if (INT + frameLength > buffer.capacity())
+                    {
+                        final ByteBuffer larger = ByteBuffer.allocateDirect(INT + frameLength);
+                        larger.put(buffer);
+                        buffer = larger;
+                        return;
+                    }
+                    break;
+                }
+                buffer.getInt();
+                final int count = buffer.getInt();
+                final List<ByteBuffer> messages = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                {
+                    final int messageLength = buffer.getInt();
+                    final ByteBuffer message = buffer.asReadOnlyBuffer();
+                    message.limit(message.position() + messageLength);
+                    messages.add(message.slice());
+                    buffer.position(buffer.position() + messageLength);
+                }
+                try
+                {
+                    frameHandler.accept(messages);
+                }
+                catch (RuntimeException e)
+                {
+                    errorHandler.accept(e);
+                }
+            }
+            buffer.compact();
+        }
+    }
+}
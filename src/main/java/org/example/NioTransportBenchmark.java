@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Measures the throughput and latency of a group of {@link NioTransport}s on the loopback interface, in one or
+ * several JVMs. Every process broadcasts timestamped messages to every other process, at a given rate or as fast as
+ * possible.
+ * <p>
+ * Arguments, all optional: {@code processes messagesPerProcess ratePerProcess maxFrameMessages lingerMicros jvms}. A
+ * rate of zero is unlimited, which measures latency under saturation. With more than one JVM, the processes are
+ * distributed over child JVMs launched with the same class path, which are coordinated over their standard input and
+ * output. Latency across JVMs relies on {@link System#nanoTime()} being a system-wide clock, as it is on Linux.
+ * Prints one line of tab-separated values.
+ */
+public class NioTransportBenchmark
+{
+    private static final String WORKER = "worker";
+    private static final int MAX_FRAME_BYTES = 1 << 16, MAX_QUEUED_MESSAGES = 1 << 14;
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length > 0 && args[0].equals(WORKER))
+        {
+            worker(args);
+            return;
+        }
+        final int processes = arg(args, 0, 3);
+        final int messages = arg(args, 1, 200_000);
+        final int rate = arg(args, 2, 0);
+        final int maxFrameMessages = arg(args, 3, 64);
+        final int lingerMicros = arg(args, 4, 100);
+        final int jvms = Math.min(processes, arg(args, 5, 1));
+
+        final long elapsed;
+        final long[] latencies;
+        if (jvms == 1)
+        {
+            try (Group group = new Group(processes, processes, messages, maxFrameMessages, lingerMicros))
+            {
+                group.connect(group.addresses());
+                final long start = System.nanoTime();
+                group.run(messages, rate);
+                elapsed = System.nanoTime() - start;
+                latencies = group.latencies();
+            }
+        }
+        else
+        {
+            final List<Worker> workers = new ArrayList<>();
+            try
+            {
+                for (int j = 0; j < jvms; j++)
+                    workers.add(new Worker(processes / jvms + (j < processes % jvms ? 1 : 0),
+                                           processes, messages, rate, maxFrameMessages, lingerMicros));
+                final List<String> addresses = new ArrayList<>();
+                for (Worker worker : workers)
+                    addresses.add(worker.await(null));
+                for (Worker worker : workers)
+                    worker.command(String.join(" ", addresses));
+                for (Worker worker : workers)
+                    worker.await("ready");
+                final long start = System.nanoTime();
+                for (Worker worker : workers)
+                    worker.command("go");
+                for (Worker worker : workers)
+                    worker.await("done");
+                elapsed = System.nanoTime() - start;
+
+                final List<long[]> all = new ArrayList<>();
+                for (Worker worker : workers)
+                    all.add(worker.latencies());
+                latencies = all.stream().flatMapToLong(LongStream::of).toArray();
+            }
+            finally
+            {
+                for (Worker worker : workers)
+                    worker.close();
+            }
+        }
+
+        Arrays.sort(latencies);
+        System.out.println("processes\tjvms\tmessages\trate\tframe\tlinger_us\tmsgs_per_s\tp50_us\tp99_us");
+        System.out.println(format("%d\t%d\t%d\t%d\t%d\t%d\t%.0f\t%.1f\t%.1f",
+                                  processes, jvms, messages, rate, maxFrameMessages, lingerMicros,
+                                  latencies.length * 1e9 / elapsed,
+                                  percentile(latencies, 0.5) / 1e3,
+                                  percentile(latencies, 0.99) / 1e3));
+    }
+
+    /**
+     * Runs some of the processes in a child JVM. Arguments: {@code worker localProcesses processes messagesPerProcess
+     * ratePerProcess maxFrameMessages lingerMicros latencyFile}.
+     * <p>
+     * Prints the ports of its processes; reads the ports of all processes, connects, and prints "ready";
+     * reads "go", runs, and prints "done"; then writes the received latencies to the file and exits.
+     */
+    private static void worker(String[] args) throws Exception
+    {
+        final int messages = arg(args, 3, 0);
+        final BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        try (Group group = new Group(arg(args, 1, 0), arg(args, 2, 0), messages, arg(args, 5, 0), arg(args, 6, 0));
+             DataOutputStream latencyFile = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(Paths.get(args[7])))))
+        {
+            System.out.println(group.addresses().stream()
+                                   .map(address -> Integer.toString(address.getPort())).collect(joining(" ")));
+            group.connect(Arrays.stream(in.readLine().split(" "))
+                              .map(port -> new InetSocketAddress("localhost", Integer.parseInt(port)))
+                              .collect(toList()));
+            System.out.println("ready");
+            if (!"go".equals(in.readLine()))
+                throw new IllegalStateException("Benchmark cancelled");
+            group.run(messages, arg(args, 4, 0));
+            System.out.println("done");
+            final long[] latencies = group.latencies();
+            latencyFile.writeInt(latencies.length);
+            for (long latency : latencies)
+                latencyFile.writeLong(latency);
+        }
+    }
+
+    /**
+     * A child JVM running a {@link #worker(String[])}
+     */
+    private static class Worker implements Closeable
+    {
+        final Process process;
+        final Path latencyFile;
+        final BufferedReader out;
+        final Writer in;
+
+        Worker(int localProcesses, int processes, int messages, int rate, int maxFrameMessages, int lingerMicros)
+            throws IOException
+        {
+            this.latencyFile = Files.createTempFile("latencies", ".bin");
+            this.process = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), NioTransportBenchmark.class.getName(), WORKER,
+                Integer.toString(localProcesses), Integer.toString(processes), Integer.toString(messages),
+                Integer.toString(rate), Integer.toString(maxFrameMessages), Integer.toString(lingerMicros),
+                latencyFile.toString())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            this.in = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        void command(String line) throws IOException
+        {
+            in.write(line + "\n");
+            in.flush();
+        }
+
+        /**
+         * @param expected the expected line, or {@code null} for any line
+         * @return the line
+         */
+        String await(String expected) throws IOException
+        {
+            final String line = out.readLine();
+            if (line == null || expected != null && !expected.equals(line))
+                throw new IllegalStateException(format("Worker failed, expected %s but got %s", expected, line));
+            return line;
+        }
+
+        long[] latencies() throws IOException, InterruptedException
+        {
+            if (process.waitFor() != 0)
+                throw new IllegalStateException("Worker failed with exit code " + process.exitValue());
+            try (DataInputStream data = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(latencyFile))))
+            {
+                final long[] latencies = new long[data.readInt()];
+                for (int i = 0; i < latencies.length; i++)
+                    latencies[i] = data.readLong();
+                return latencies;
+            }
+        }
+
+        @Override public void close() throws IOException
+        {
+            process.destroy();
+            Files.deleteIfExists(latencyFile);
+        }
+    }
+
+    /**
+     * The processes in one JVM
+     */
+    private static class Group implements Closeable
+    {
+        final List<Receiver> receivers = new ArrayList<>();
+        final List<NioTransport> transports = new ArrayList<>();
+        final CountDownLatch done;
+
+        /**
+         * @param localProcesses the number of processes in this group
+         * @param processes      the total number of processes, from all but one of which each process receives
+         */
+        Group(int localProcesses, int processes, int messages, int maxFrameMessages, int lingerMicros)
+            throws IOException
+        {
+            this.done = new CountDownLatch(localProcesses);
+            for (int p = 0; p < localProcesses; p++)
+            {
+                final Receiver receiver = new Receiver((processes - 1) * messages, done);
+                receivers.add(receiver);
+                transports.add(new NioTransport(new InetSocketAddress("localhost", 0), receiver::frame,
+                                                Throwable::printStackTrace, maxFrameMessages, MAX_FRAME_BYTES,
+                                                TimeUnit.MICROSECONDS.toNanos(lingerMicros), MAX_QUEUED_MESSAGES));
+            }
+        }
+
+        List<InetSocketAddress> addresses()
+        {
+            return transports.stream().map(NioTransport::address).collect(toList());
+        }
+
+        void connect(List<InetSocketAddress> all) throws IOException, InterruptedException
+        {
+            for (NioTransport transport : transports)
+                for (InetSocketAddress peer : all)
+                    if (peer.getPort() != transport.address().getPort())
+                        transport.connect(peer, CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Sends from every process, and waits for every process to receive all messages
+         */
+        void run(int messages, int rate) throws InterruptedException
+        {
+            final List<Thread> senders = new ArrayList<>();
+            for (NioTransport transport : transports)
+            {
+                final Thread sender = new Thread(() -> send(transport, messages, rate));
+                senders.add(sender);
+                sender.start();
+            }
+            for (Thread sender : senders)
+                sender.join();
+            for (NioTransport transport : transports)
+                transport.flush();
+            if (!done.await(5, TimeUnit.MINUTES))
+                throw new IllegalStateException("Messages not delivered");
+        }
+
+        long[] latencies()
+        {
+            return receivers.stream().flatMapToLong(r -> Arrays.stream(r.latencies)).toArray();
+        }
+
+        @Override public void close() throws IOException
+        {
+            for (NioTransport transport : transports)
+                transport.close();
+        }
+    }
+
+    private static void send(NioTransport transport, int messages, int rate)
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            for (int m = 0; m < messages; m++)
+            {
+                if (rate > 0)
+                    while (System.nanoTime() - start < m * 1_000_000_000L / rate)
+                        Thread.yield();
+                final ByteBuffer payload = ByteBuffer.allocate(Long.BYTES * 2);
+                payload.putLong(0, System.nanoTime()).putLong(Long.BYTES, m);
+                transport.send(payload);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Receiver
+    {
+        final long[] latencies;
+        final CountDownLatch done;
+        int received = 0;
+
+        Receiver(int expected, CountDownLatch done)
+        {
+            this.latencies = new long[expected];
+            this.done = done;
+        }
+
+        /**
+         * Called on the transport thread
+         */
+        void frame(List<ByteBuffer> frame)
+        {
+            final long now = System.nanoTime();
+            for (ByteBuffer message : frame)
+                latencies[received++] = now - message.getLong(0);
+            if (received == latencies.length)
+                done.countDown();
+        }
+    }
+
+    private static double percentile(long[] sorted, double p)
+    {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int)(sorted.length * p))];
+    }
+
+    private static int arg(String[] args, int index, int defaultValue)
+    {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+}
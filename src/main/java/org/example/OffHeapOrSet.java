@@ -0,0 +1,568 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.UUID.randomUUID;
+import static org.example.OrSet.Operation.Type.ADD;
+import static org.example.OrSet.Operation.Type.REMOVE;
+
+/**
+ * An implementation of the OR-Set CRDT which stores its state outside of the Java heap, for very large sets of
+ * fixed-width elements. It has the same operations and semantics as {@link OrSet}, and its {@link #digest()} is
+ * equal to that of an {@link OrSet} with the same content.
+ * <p>
+ * The state is an open-addressing hash table of element/tag pairs, with linear probing on the element, held either in
+ * direct buffers or in a memory-mapped file. Each slot holds a state byte, the encoded element, and one tag inline, so
+ * an element with concurrently-added tags occupies more than one slot. If a file is used, a set can be re-opened from
+ * it after a restart, provided it was {@link #close() closed}; the file is not guaranteed to be consistent otherwise.
+ *
+ * @param <E> the set element type. Equal elements must have equal encodings.
+ */
+public class OffHeapOrSet<E> implements SetProxy<E, Optional<List<OrSet.Operation<E>>>>, Closeable
+{
+    private static final int MAGIC = 0x4F525354;
+    private static final int HEADER_SIZE = 32;
+    private static final int MAX_SEGMENT_SLOTS = 1 << 20;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final byte EMPTY = 0, FULL = 1, DELETED = 2;
+
+    private final Codec<E> codec;
+    private final Path file;
+    private final int slotSize;
+    private final byte[] key;
+    private final ByteBuffer keyBuffer;
+    private Table table;
+
+    /**
+     * Fixed-width binary encoding of set elements.
+     *
+     * @param <E> the element type
+     */
+    public interface Codec<E>
+    {
+        /**
+         * @return the number of bytes in every element encoding
+         */
+        int width();
+
+        /**
+         * Writes exactly {@link #width()} bytes at the buffer's position
+         */
+        void write(E element, ByteBuffer buffer);
+
+        /**
+         * Reads exactly {@link #width()} bytes from the buffer's position
+         */
+        E read(ByteBuffer buffer);
+
+        Codec<Integer> INTEGER = new Codec<Integer>()
+        {
+            @Override public int width()
+            {
+                return Integer.BYTES;
+            }
+
+            @Override public void write(Integer element, ByteBuffer buffer)
+            {
+                buffer.putInt(element);
+            }
+
+            @Override public Integer read(ByteBuffer buffer)
+            {
+                return buffer.getInt();
+            }
+        };
+
+        Codec<Long> LONG = new Codec<Long>()
+        {
+            @Override public int width()
+            {
+                return Long.BYTES;
+            }
+
+            @Override public void write(Long element, ByteBuffer buffer)
+            {
+                buffer.putLong(element);
+            }
+
+            @Override public Long read(ByteBuffer buffer)
+            {
+                return buffer.getLong();
+            }
+        };
+    }
+
+    /**
+     * Creates an OR-Set in direct (off-heap) memory.
+     *
+     * @param codec           the element encoding
+     * @param initialCapacity the initial number of element/tag slots
+     */
+    public OffHeapOrSet(Codec<E> codec, int initialCapacity)
+    {
+        this.codec = codec;
+        this.file = null;
+        this.slotSize = 1 + codec.width() + 16;
+        this.key = new byte[codec.width()];
+        this.keyBuffer = ByteBuffer.wrap(key);
+        try
+        {
+            this.table = new Table(capacityFor(initialCapacity), null);
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e); // No I/O for direct buffers
+        }
+    }
+
+    /**
+     * Creates or re-opens an OR-Set in a memory-mapped file.
+     *
+     * @param codec           the element encoding
+     * @param initialCapacity the initial number of element/tag slots, if the file does not exist
+     * @param file            the file to map
+     * @throws IOException              if the file cannot be mapped
+     * @throws IllegalArgumentException if the file exists and does not contain an OR-Set with the given encoding
+     */
+    public OffHeapOrSet(Codec<E> codec, int initialCapacity, Path file) throws IOException
+    {
+        this.codec = codec;
+        this.file = file;
+        this.slotSize = 1 + codec.width() + 16;
+        this.key = new byte[codec.width()];
+        this.keyBuffer = ByteBuffer.wrap(key);
+
+        final FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE);
+        if (channel.size() == 0)
+        {
+            this.table = new Table(capacityFor(initialCapacity), channel);
+        }
+        else
+        {
+            final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != codec.width())
+            {
+                channel.close();
+                throw new IllegalArgumentException("File does not contain an OR-Set with this element width");
+            }
+            this.table = new Table(header.getInt(8), channel);
+        }
+    }
+
+    @Override public synchronized Set<E> elements()
+    {
+        final Set<E> elements = new HashSet<>(table.size());
+        for (int slot = 0; slot < table.capacity; slot++)
+            if (table.state(slot) == FULL)
+                elements.add(table.element(slot));
+        return elements;
+    }
+
+    @Override public synchronized Optional<List<OrSet.Operation<E>>> add(E element)
+    {
+        encode(element);
+        if (!tags().isEmpty())
+        {
+            return Optional.empty();
+        }
+        else
+        {
+            final List<OrSet.Operation<E>> ops =
+                Collections.singletonList(new OrSet.Operation<>(ADD, randomUUID(), element));
+            apply(ops);
+            return Optional.of(ops);
+        }
+    }
+
+    @Override public synchronized Optional<List<OrSet.Operation<E>>> remove(E element)
+    {
+        encode(element);
+        final List<UUID> ids = tags();
+        if (ids.isEmpty())
+        {
+            return Optional.empty();
+        }
+        else
+        {
+            final List<OrSet.Operation<E>> ops = new ArrayList<>(ids.size());
+            for (UUID id : ids)
+                ops.add(new OrSet.Operation<>(REMOVE, id, element));
+            apply(ops);
+            return Optional.of(ops);
+        }
+    }
+
+    public synchronized boolean apply(List<OrSet.Operation<E>> ops)
+    {
+        boolean changed = false;
+        for (OrSet.Operation<E> op : ops)
+            changed = apply(op) || changed;
+        return changed;
+    }
+
+    /**
+     * @return the number of elements in the set
+     */
+    public synchronized int size()
+    {
+        return table.size();
+    }
+
+    /**
+     * @return an order-independent digest of the content of this OR-Set
+     * @see OrSet#digest()
+     */
+    public synchronized long digest()
+    {
+        return table.digest();
+    }
+
+    /**
+     * Clears the content of this OR-Set.
+     * Great care should be taken to ensure that any process clocks are synchronised, otherwise this method could
+     * permanently break convergence.
+     */
+    public synchronized void clear()
+    {
+        for (int slot = 0; slot < table.capacity; slot++)
+            table.setState(slot, EMPTY);
+        table.setCounts(0, 0, 0);
+        table.setDigest(0L);
+    }
+
+    /**
+     * Flushes the state to the file, if any, and releases it. This set must not be used after closing.
+     */
+    @Override public synchronized void close() throws IOException
+    {
+        table.close();
+    }
+
+    private boolean apply(OrSet.Operation<E> op)
+    {
+        encode(op.element);
+        final int home = table.home();
+        switch (op.type)
+        {
+            case ADD:
+                boolean present = false;
+                int free = -1;
+                for (int slot = home; ; slot = table.next(slot))
+                {
+                    final byte state = table.state(slot);
+                    if (state == EMPTY)
+                    {
+                        if (free == -1)
+                            free = slot;
+                        break;
+                    }
+                    else if (state == DELETED)
+                    {
+                        if (free == -1)
+                            free = slot;
+                    }
+                    else if (table.matches(slot))
+                    {
+                        if (table.tag(slot).equals(op.id))
+                            return false;
+                        present = true;
+                    }
+                }
+                final boolean reused = table.state(free) == DELETED;
+                table.put(free, op.id);
+                table.setCounts(table.size() + (present ? 0 : 1), table.pairs() + 1, table.used() + (reused ? 0 : 1));
+                table.setDigest(table.digest() ^ DigestTree.hash(op.element, op.id));
+                if (table.used() > table.capacity >>> 1)
+                    grow();
+                return true;
+
+            case REMOVE:
+                int removed = -1;
+                boolean remaining = false;
+                for (int slot = home; table.state(slot) != EMPTY; slot = table.next(slot))
+                {
+                    if (table.state(slot) == FULL && table.matches(slot))
+                    {
+                        if (removed == -1 && table.tag(slot).equals(op.id))
+                            removed = slot;
+                        else
+                            remaining = true;
+                    }
+                }
+                if (removed != -1)
+                {
+                    table.setState(removed, DELETED);
+                    table.setCounts(table.size() - (remaining ? 0 : 1), table.pairs() - 1, table.used());
+                    table.setDigest(table.digest() ^ DigestTree.hash(op.element, op.id));
+                    return true;
+                }
+        }
+        return false;
+    }
+
+    /**
+     * @return the tags of the currently encoded element
+     */
+    private List<UUID> tags()
+    {
+        final List<UUID> ids = new ArrayList<>(1);
+        for (int slot = table.home(); table.state(slot) != EMPTY; slot = table.next(slot))
+            if (table.state(slot) == FULL && table.matches(slot))
+                ids.add(table.tag(slot));
+        return ids;
+    }
+
+    private void encode(E element)
+    {
+        keyBuffer.clear();
+        codec.write(element, keyBuffer);
+    }
+
+    /**
+     * Re-hashes into a new table, dropping deleted slots and doubling the capacity if required.
+     */
+    private void grow()
+    {
+        final Table old = table;
+        final int capacity = old.pairs() > old.capacity >>> 2 ? old.capacity << 1 : old.capacity;
+        if (capacity > MAX_CAPACITY)
+            throw new IllegalStateException("OR-Set capacity exceeded");
+        try
+        {
+            final Path rehash = file == null ? null : file.resolveSibling(file.getFileName() + ".rehash");
+            final Table grown = new Table(capacity, rehash == null ? null :
+                FileChannel.open(rehash, CREATE, TRUNCATE_EXISTING, READ, WRITE));
+            for (int slot = 0; slot < old.capacity; slot++)
+            {
+                if (old.state(slot) == FULL)
+                {
+                    final UUID id = old.tag(slot);
+                    old.readElement(slot);
+                    int free = grown.home();
+                    while (grown.state(free) != EMPTY)
+                        free = grown.next(free);
+                    grown.put(free, id);
+                }
+            }
+            grown.setCounts(old.size(), old.pairs(), old.pairs());
+            grown.setDigest(old.digest());
+            table = grown;
+            old.close();
+            if (rehash != null)
+            {
+                grown.force();
+                Files.move(rehash, file, REPLACE_EXISTING, ATOMIC_MOVE);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int capacityFor(int initialCapacity)
+    {
+        int capacity = 16;
+        while (capacity < initialCapacity && capacity < MAX_CAPACITY)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    /**
+     * Storage for the hash table, in segments of at most {@link #MAX_SEGMENT_SLOTS} slots.
+     * All element access is via the encoded key.
+     */
+    private class Table
+    {
+        final int capacity, segmentShift, segmentMask;
+        final FileChannel channel;
+        final ByteBuffer header;
+        final ByteBuffer[] segments;
+
+        Table(int capacity, FileChannel channel) throws IOException
+        {
+            this.capacity = capacity;
+            this.channel = channel;
+            final int segmentSlots = Math.min(capacity,
+                Math.min(MAX_SEGMENT_SLOTS, Integer.highestOneBit(Integer.MAX_VALUE / slotSize)));
+            this.segmentShift = Integer.numberOfTrailingZeros(segmentSlots);
+            this.segmentMask = segmentSlots - 1;
+            this.segments = new ByteBuffer[capacity / segmentSlots];
+            final long segmentBytes = (long)segmentSlots * slotSize;
+            if (channel == null)
+            {
+                this.header = ByteBuffer.allocateDirect(HEADER_SIZE);
+                for (int i = 0; i < segments.length; i++)
+                    segments[i] = ByteBuffer.allocateDirect((int)segmentBytes);
+            }
+            else
+            {
+                this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                for (int i = 0; i < segments.length; i++)
+                    segments[i] = channel.map(
+                        FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * segmentBytes, segmentBytes);
+            }
+            if (header.getInt(0) != MAGIC)
+            {
+                header.putInt(0, MAGIC);
+                header.putInt(4, codec.width());
+                header.putInt(8, capacity);
+            }
+        }
+
+        int size()
+        {
+            return header.getInt(12);
+        }
+
+        int pairs()
+        {
+            return header.getInt(16);
+        }
+
+        int used()
+        {
+            return header.getInt(20);
+        }
+
+        void setCounts(int size, int pairs, int used)
+        {
+            header.putInt(12, size).putInt(16, pairs).putInt(20, used);
+        }
+
+        long digest()
+        {
+            return header.getLong(24);
+        }
+
+        void setDigest(long digest)
+        {
+            header.putLong(24, digest);
+        }
+
+        /**
+         * @return the home slot of the encoded key
+         */
+        int home()
+        {
+            int h = 0x811C9DC5;
+            for (byte b : key)
+                h = (h ^ b) * 0x01000193;
+            // MurmurHash3 finaliser
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            h *= 0xC2B2AE35;
+            h ^= h >>> 16;
+            return h & (capacity - 1);
+        }
+
+        int next(int slot)
+        {
+            return (slot + 1) & (capacity - 1);
+        }
+
+        byte state(int slot)
+        {
+            return segment(slot).get(offset(slot));
+        }
+
+        void setState(int slot, byte state)
+        {
+            segment(slot).put(offset(slot), state);
+        }
+
+        boolean matches(int slot)
+        {
+            final ByteBuffer segment = segment(slot);
+            final int offset = offset(slot) + 1;
+            for (int i = 0; i < key.length; i++)
+                if (segment.get(offset + i) != key[i])
+                    return false;
+            return true;
+        }
+
+        UUID tag(int slot)
+        {
+            final ByteBuffer segment = segment(slot);
+            final int offset = offset(slot) + 1 + key.length;
+            return new UUID(segment.getLong(offset), segment.getLong(offset + 8));
+        }
+
+        E element(int slot)
+        {
+            final ByteBuffer segment = segment(slot);
+            segment.position(offset(slot) + 1);
+            return codec.read(segment);
+        }
+
+        /**
+         * Reads the element at the given slot into the key
+         */
+        void readElement(int slot)
+        {
+            final ByteBuffer segment = segment(slot);
+            segment.position(offset(slot) + 1);
+            segment.get(key);
+        }
+
+        /**
+         * Puts the encoded key and the given tag into the given slot
+         */
+        void put(int slot, UUID id)
+        {
+            final ByteBuffer segment = segment(slot);
+            final int offset = offset(slot);
+            segment.position(offset + 1);
+            segment.put(key);
+            segment.putLong(id.getMostSignificantBits());
+            segment.putLong(id.getLeastSignificantBits());
+            segment.put(offset, FULL);
+        }
+
+        void force()
+        {
+            if (channel != null)
+            {
+                ((MappedByteBuffer)header).force();
+                for (ByteBuffer segment : segments)
+                    ((MappedByteBuffer)segment).force();
+            }
+        }
+
+        void close() throws IOException
+        {
+            if (channel != null)
+            {
+                force();
+                channel.close();
+            }
+        }
+
+        private ByteBuffer segment(int slot)
+        {
+            return segments[slot >>> segmentShift];
+        }
+
+        private int offset(int slot)
+        {
+            return (slot & segmentMask) * slotSize;
+        }
+    }
+}
@@ -6,22 +6,48 @@
 package org.example;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
 import static java.util.Collections.singletonList;
 import static java.util.Objects.requireNonNull;
 import static java.util.UUID.randomUUID;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
 import static org.example.OrSet.Operation.Type.ADD;
 import static org.example.OrSet.Operation.Type.REMOVE;
 
 /**
  * A very inefficient example implementation of the OR-Set CRDT.
+ * <p>
+ * An OR-Set can optionally be created in <i>delta-state</i> mode, in which it remembers removed tags. Lists of
+ * operations then become join-able delta states: applying them is idempotent and commutative, so replicas can be
+ * reconciled without causal delivery. Delta-state mode also maintains a {@link DigestTree hash tree} over element
+ * buckets, for anti-entropy synchronisation. Replica A can reconcile with replica B by descending the tree from the
+ * root, exchanging only the digests of nodes which differ, and finally the deltas of only the differing buckets:
+ * <pre>
+ * int[] nodes = { OrSet.ROOT };
+ * while ((nodes = a.differing(nodes, b.digests(nodes))).length &gt; 0 &amp;&amp; !a.isBucket(nodes[0]))
+ *     nodes = OrSet.children(nodes);
+ * a.apply(b.delta(nodes));
+ * b.apply(a.delta(nodes));
+ * </pre>
  *
- * @param <E> the set element type
+ * @param <E> the set element type. In delta-state mode, the element {@link Object#hashCode()} must be consistent
+ *            between replicas.
  */
 public class OrSet<E> implements SetProxy<E, Optional<List<OrSet.Operation<E>>>>
 {
-    private final Map<E, Set<UUID>> elementIds = new HashMap<>();
+    /**
+     * The root node of the digest tree, in delta-state mode
+     */
+    public static final int ROOT = DigestTree.ROOT;
+    private Map<E, Set<UUID>> elementIds = new HashMap<>();
+    private final Map<E, Set<UUID>> removedIds;
+    private final DigestTree digestTree;
+    private long digest = 0L;
+    private Tracker<E> tracker;
 
     static class Operation<E>
     {
@@ -57,6 +83,43 @@ public class OrSet<E> implements SetProxy<E, Optional<List<OrSet.Operation<E>>>>
         }
     }
 
+    /**
+     * Notified, under the set's monitor, before the tags of an element change
+     */
+    interface Tracker<E>
+    {
+        /**
+         * @param element the element whose tags are about to change
+         * @param ids     the current tags of the element, or {@code null} if it is absent. Must not be retained.
+         */
+        void changing(E element, Set<UUID> ids);
+    }
+
+    public OrSet()
+    {
+        this.removedIds = null;
+        this.digestTree = null;
+    }
+
+    /**
+     * Creates an OR-Set in delta-state mode.
+     *
+     * @param digestDepth the depth of the digest tree, which will have {@code 2^digestDepth} buckets
+     */
+    public OrSet(int digestDepth)
+    {
+        this.removedIds = new HashMap<>();
+        this.digestTree = new DigestTree(digestDepth);
+    }
+
+    /**
+     * @return {@code true} if this OR-Set was created in delta-state mode, and so keeps its removed tags
+     */
+    public boolean isDeltaState()
+    {
+        return digestTree != null;
+    }
+
     public synchronized Set<E> elements()
     {
         return new HashSet<>(elementIds.keySet());
@@ -72,7 +135,24 @@ public class OrSet<E> implements SetProxy<E, Optional<List<OrSet.Operation<E>>>>
     public synchronized Set<UUID> putEntry(Map.Entry<E, Set<UUID>> entry)
     {
         assert !entry.getValue().isEmpty();
-        return elementIds.put(entry.getKey(), entry.getValue());
+        changing(entry.getKey());
+        final Set<UUID> previous = elementIds.put(entry.getKey(), entry.getValue());
+        if (previous != null)
+            previous.forEach(id -> toggleDigest(entry.getKey(), id));
+        entry.getValue().forEach(id -> toggleDigest(entry.getKey(), id));
+        return previous;
+    }
+
+    /**
+     * Puts many entries, under one lock acquisition.
+     *
+     * @param entries entries, each with a non-empty set of tags
+     * @see #putEntry(Map.Entry)
+     */
+    public synchronized void putEntries(Collection<? extends Map.Entry<E, Set<UUID>>> entries)
+    {
+        ensureCapacity(entries.size());
+        entries.forEach(this::putEntry);
     }
 
     public synchronized Optional<List<Operation<E>>> add(E element)
@@ -106,33 +186,254 @@ public class OrSet<E> implements SetProxy<E, Optional<List<OrSet.Operation<E>>>>
         }
     }
 
+    /**
+     * Adds many elements, under one lock acquisition.
+     *
+     * @return a list containing one operation result for all the elements that were added, or an empty list if all
+     * the elements were already present
+     */
+    @Override public synchronized List<Optional<List<Operation<E>>>> addAll(Collection<? extends E> elements)
+    {
+        ensureCapacity(elements.size());
+        final Set<E> adding = new HashSet<>();
+        final List<Operation<E>> ops = new ArrayList<>(elements.size());
+        for (E element : elements)
+            if (!elementIds.containsKey(element) && adding.add(element))
+                ops.add(new Operation<>(ADD, randomUUID(), element));
+        return bulk(ops);
+    }
+
+    /**
+     * Removes many elements, under one lock acquisition.
+     *
+     * @return a list containing one operation result for all the elements that were removed, or an empty list if
+     * none of the elements were present
+     */
+    @Override public synchronized List<Optional<List<Operation<E>>>> removeAll(Collection<? extends E> elements)
+    {
+        final Set<E> removing = new HashSet<>();
+        final List<Operation<E>> ops = new ArrayList<>(elements.size());
+        for (E element : elements)
+            if (elementIds.containsKey(element) && removing.add(element))
+                for (UUID id : elementIds.get(element))
+                    ops.add(new Operation<>(REMOVE, id, element));
+        return bulk(ops);
+    }
+
+    private List<Optional<List<Operation<E>>>> bulk(List<Operation<E>> ops)
+    {
+        if (ops.isEmpty())
+            return emptyList();
+        apply(ops);
+        return singletonList(Optional.of(ops));
+    }
+
+    /**
+     * Re-hashes the element map ahead of a bulk addition, if the addition would at least double its size.
+     */
+    private void ensureCapacity(int additional)
+    {
+        if (additional > elementIds.size())
+        {
+            final Map<E, Set<UUID>> resized = new HashMap<>((int)((elementIds.size() + additional) / 0.75f) + 1);
+            resized.putAll(elementIds);
+            elementIds = resized;
+        }
+    }
+
     public synchronized boolean apply(List<Operation<E>> ops)
+    {
+        return apply(ops, null, null);
+    }
+
+    /**
+     * Applies operations, collecting the elements that become visible or invisible as a result. An element which
+     * both appears and disappears while applying the operations is not collected.
+     *
+     * @param ops     the operations to apply
+     * @param added   collects the elements which were absent and are now present
+     * @param removed collects the elements which were present and are now absent. Either both or neither of the
+     *                collections may be {@code null}.
+     * @return {@code true} if any tag was added or removed
+     */
+    public synchronized boolean apply(List<Operation<E>> ops, Set<E> added, Set<E> removed)
     {
         boolean changed = false;
         for (Operation<E> op : ops)
-            changed = changed || apply(op);
+            changed = apply(op, added, removed) || changed;
         return changed;
     }
 
-    private boolean apply(Operation<E> op)
+    /**
+     * An order-independent digest of the content of this OR-Set, maintained incrementally. Replicas which have
+     * converged have equal digests; so comparing digests is a cheap check for convergence, subject to an
+     * improbable collision.
+     *
+     * @return the XOR of a hash of every element and tag in the set
+     */
+    public synchronized long digest()
+    {
+        return digest;
+    }
+
+    /**
+     * @param node a digest tree node
+     * @return {@code true} if the node is a leaf of the digest tree, i.e. a bucket
+     */
+    public boolean isBucket(int node)
+    {
+        return deltaState().isLeaf(node);
+    }
+
+    /**
+     * @param nodes digest tree nodes
+     * @return the digests of the given nodes
+     */
+    public synchronized long[] digests(int... nodes)
+    {
+        final DigestTree digestTree = deltaState();
+        final long[] digests = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            digests[i] = digestTree.digest(nodes[i]);
+        return digests;
+    }
+
+    /**
+     * Compares digests from another replica with our own.
+     *
+     * @param nodes   digest tree nodes
+     * @param digests digests of the given nodes from another replica
+     * @return those of the given nodes whose digests differ
+     */
+    public synchronized int[] differing(int[] nodes, long[] digests)
+    {
+        final DigestTree digestTree = deltaState();
+        return range(0, nodes.length)
+            .filter(i -> digestTree.digest(nodes[i]) != digests[i])
+            .map(i -> nodes[i])
+            .toArray();
+    }
+
+    /**
+     * @param nodes digest tree nodes, none of which are buckets
+     * @return the children of the given nodes
+     */
+    public static int[] children(int... nodes)
+    {
+        return IntStream.of(nodes).flatMap(node -> IntStream.of(node << 1, (node << 1) + 1)).toArray();
+    }
+
+    /**
+     * Produces a delta state for the given digest tree nodes, suitable for {@link #apply(List)} at another replica.
+     * Note that this requires a scan of the whole state, but the result contains only the elements in the given nodes.
+     *
+     * @param nodes digest tree nodes
+     * @return operations for all present and removed tags of elements in the buckets under the given nodes
+     */
+    public synchronized List<Operation<E>> delta(int... nodes)
+    {
+        final DigestTree digestTree = deltaState();
+        final BitSet buckets = new BitSet();
+        for (int node : nodes)
+            buckets.set(digestTree.firstBucket(node), digestTree.lastBucket(node) + 1);
+
+        final List<Operation<E>> delta = new ArrayList<>();
+        elementIds.forEach((element, ids) -> {
+            if (buckets.get(digestTree.bucket(element)))
+                ids.forEach(id -> delta.add(new Operation<>(ADD, id, element)));
+        });
+        removedIds.forEach((element, ids) -> {
+            if (buckets.get(digestTree.bucket(element)))
+                ids.forEach(id -> delta.add(new Operation<>(REMOVE, id, element)));
+        });
+        return delta;
+    }
+
+    private boolean apply(Operation<E> op, Set<E> added, Set<E> removed)
     {
         switch (op.type)
         {
             case ADD:
-                return elementIds.computeIfAbsent(op.element, e -> new HashSet<>()).add(op.id);
+                if (removedIds != null && removedIds.getOrDefault(op.element, emptySet()).contains(op.id))
+                    return false;
+                final Set<UUID> existing = elementIds.get(op.element);
+                if (tracker != null && (existing == null || !existing.contains(op.id)))
+                    tracker.changing(op.element, existing);
+                if (existing == null)
+                {
+                    elementIds.put(op.element, new HashSet<>(singletonList(op.id)));
+                    if (added != null && !removed.remove(op.element))
+                        added.add(op.element);
+                }
+                else if (!existing.add(op.id))
+                {
+                    return false;
+                }
+                toggleDigest(op.element, op.id);
+                return true;
 
             case REMOVE:
-                final Set ids = elementIds.get(op.element);
+                if (removedIds != null)
+                    removedIds.computeIfAbsent(op.element, e -> new HashSet<>()).add(op.id);
+                final Set<UUID> ids = elementIds.get(op.element);
+                if (tracker != null && ids != null && ids.contains(op.id))
+                    tracker.changing(op.element, ids);
                 if (ids != null && ids.remove(op.id))
                 {
                     if (ids.isEmpty())
+                    {
                         elementIds.remove(op.element);
+                        if (removed != null && !added.remove(op.element))
+                            removed.add(op.element);
+                    }
+                    toggleDigest(op.element, op.id);
                     return true;
                 }
         }
         return false;
     }
 
+    private void toggleDigest(E element, UUID id)
+    {
+        final long hash = DigestTree.hash(element, id);
+        digest ^= hash;
+        if (digestTree != null)
+            digestTree.toggle(digestTree.bucket(element), hash);
+    }
+
+    /**
+     * Sets the tracker of changes to the tags of elements, replacing any previous tracker.
+     *
+     * @param tracker the tracker, or {@code null} to stop tracking
+     */
+    synchronized void track(Tracker<E> tracker)
+    {
+        this.tracker = tracker;
+    }
+
+    /**
+     * @param element an element
+     * @return a copy of the tags of the element, empty if it is absent
+     */
+    synchronized Set<UUID> tags(E element)
+    {
+        final Set<UUID> ids = elementIds.get(element);
+        return ids == null ? new HashSet<>() : new HashSet<>(ids);
+    }
+
+    private void changing(E element)
+    {
+        if (tracker != null)
+            tracker.changing(element, elementIds.get(element));
+    }
+
+    private DigestTree deltaState()
+    {
+        if (digestTree == null)
+            throw new IllegalStateException("OR-Set is not in delta-state mode");
+        return digestTree;
+    }
+
     /**
      * Clears the content of this OR-Set.
      * Great care should be taken to ensure that any process clocks are synchronised, otherwise this method could
@@ -140,6 +441,14 @@ public class OrSet<E> implements SetProxy<E, Optional<List<OrSet.Operation<E>>>>
      */
     public synchronized void clear()
     {
+        if (tracker != null)
+            elementIds.keySet().forEach(this::changing);
         elementIds.clear();
+        digest = 0L;
+        if (digestTree != null)
+        {
+            removedIds.clear();
+            digestTree.clear();
+        }
     }
 }
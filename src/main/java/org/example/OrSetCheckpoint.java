@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.CausalClock;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * An incremental checkpoint of the state of an {@link OrSet}, together with a process clock, in a single file.
+ * <p>
+ * Elements are hashed into a fixed number of buckets, by their encoding. Once a set has been checkpointed or
+ * {@link #restore restored}, the checkpoint tracks which elements have changed, and each subsequent checkpoint appends
+ * new images of only the buckets containing those elements, followed by an index of the latest image of every bucket
+ * and the clock. The index is committed by updating its position in the file header, so a failed checkpoint leaves the
+ * previous one intact. When the superseded images come to dominate the file, it is rewritten in full.
+ * <p>
+ * A checkpoint can be {@link #markStale() marked stale}, if the process has moved on in a way that the latest
+ * checkpoint does not record. A stale checkpoint cannot be restored until another checkpoint is written.
+ * <p>
+ * A checkpoint is taken in two phases. The {@link #capture capture} must be made while the set is consistent with the
+ * clock, typically under a process monitor, but is cheap. The {@link Capture#write() write} then proceeds
+ * concurrently with changes to the set, taking the set's monitor only briefly for each bucket: a change to a captured
+ * element during the write first preserves the element's captured tags, copy-on-write.
+ * <p>
+ * Restoring memory-maps the file, decodes the buckets in parallel, and puts the entries into the set in bulk. The
+ * removed tags of a set in delta-state mode are not included. Clocks are stored using Java serialization.
+ *
+ * @param <C> the clock type, which must be serializable
+ * @param <E> the set element type. Equal elements must have equal encodings.
+ */
+public class OrSetCheckpoint<C extends CausalClock<C>, E> implements Closeable
+{
+    private static final int MAGIC = 0x4F534350, HEADER_SIZE = 24, STALE = 1;
+    private static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES, TAG_SIZE = 2 * Long.BYTES;
+
+    private final Path file;
+    private final OffHeapOrSet.Codec<E> codec;
+    private final int buckets;
+    private FileChannel channel;
+    /**
+     * The index of the latest image of each bucket; an empty bucket has offset -1
+     */
+    private final long[] offsets;
+    private final int[] lengths;
+    private byte[] clock;
+    private long footer = 0L;
+    private boolean stale = false;
+    private volatile Tracker tracker;
+
+    /**
+     * Opens a checkpoint file, creating it if it does not exist.
+     *
+     * @param file    the checkpoint file
+     * @param codec   the element encoding
+     * @param buckets the number of buckets, which must be the same every time the file is opened
+     */
+    public OrSetCheckpoint(Path file, OffHeapOrSet.Codec<E> codec, int buckets) throws IOException
+    {
+        if (buckets < 1)
+            throw new IllegalArgumentException("Checkpoint must have at least one bucket");
+
+        this.file = file;
+        this.codec = codec;
+        this.buckets = buckets;
+        this.offsets = new long[buckets];
+        this.lengths = new int[buckets];
+        Arrays.fill(offsets, -1L);
+        this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+
+        if (channel.size() == 0)
+        {
+            writeHeader(channel, 0L, 0);
+        }
+        else
+        {
+            final ByteBuffer header = read(0L, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != buckets || header.getInt() != codec.width())
+                throw new IOException("Checkpoint file " + file + " has a different format");
+            stale = (header.getInt() & STALE) != 0;
+            footer = header.getLong();
+            if (footer != 0L)
+            {
+                final int clockLength = read(footer, Integer.BYTES).getInt();
+                final ByteBuffer footerContent = read(footer + Integer.BYTES, clockLength + buckets * INDEX_ENTRY_SIZE);
+                clock = new byte[clockLength];
+                footerContent.get(clock);
+                for (int b = 0; b < buckets; b++)
+                {
+                    offsets[b] = footerContent.getLong();
+                    lengths[b] = footerContent.getInt();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the clock of the latest checkpoint, if any
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized Optional<C> clock() throws IOException
+    {
+        if (clock == null)
+            return Optional.empty();
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(clock)))
+        {
+            return Optional.of((C)in.readObject());
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Restores the latest checkpoint into an empty set, which is then tracked for the next checkpoint.
+     *
+     * @param orSet an empty OR-Set
+     * @throws IOException if the checkpoint is {@link #isStale() stale}
+     */
+    public synchronized void restore(OrSet<E> orSet) throws IOException
+    {
+        if (!orSet.elements().isEmpty())
+            throw new IllegalStateException("Can only restore into an empty set");
+        if (stale)
+            throw new IOException("Checkpoint file " + file + " is stale");
+        if (channel.size() > Integer.MAX_VALUE)
+            throw new IOException("Checkpoint file " + file + " is too large to map");
+
+        final MappedByteBuffer mapped = channel.map(READ_ONLY, 0L, channel.size());
+        orSet.putEntries(IntStream.range(0, buckets).parallel().filter(b -> offsets[b] >= 0).mapToObj(b -> {
+            final ByteBuffer image = mapped.duplicate();
+            image.position((int)offsets[b]).limit((int)offsets[b] + lengths[b]);
+            final List<Map.Entry<E, Set<UUID>>> entries = new ArrayList<>();
+            decode(image, (element, ids) -> entries.add(new AbstractMap.SimpleEntry<>(codec.read(element), ids)));
+            return entries;
+        }).flatMap(List::stream).collect(toList()));
+        synchronized (orSet)
+        {
+            track(orSet);
+        }
+    }
+
+    /**
+     * Captures the state of a set for a checkpoint. The set must be consistent with the given clock, and must not
+     * change during this call. The first capture of a set that was not restored includes all its elements.
+     *
+     * @param orSet the set to checkpoint, which must be the same set every time
+     * @param time  the process clock
+     * @return the capture, to be written
+     * @throws IllegalStateException if a previous capture has not been written
+     */
+    public Capture capture(OrSet<E> orSet, C time) throws IOException
+    {
+        final ByteArrayOutputStream clockBytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(clockBytes))
+        {
+            out.writeObject(time);
+        }
+        synchronized (orSet)
+        {
+            if (tracker == null)
+                track(orSet).dirty.addAll(orSet.elements());
+            else if (tracker.orSet != orSet)
+                throw new IllegalArgumentException("Checkpoint is tracking another set");
+            return tracker.capture(clockBytes.toByteArray());
+        }
+    }
+
+    /**
+     * Marks the latest checkpoint as stale, so that it cannot be restored. The mark is kept in memory even if it
+     * cannot be written to the file. It is cleared when the next checkpoint is written.
+     */
+    public synchronized void markStale() throws IOException
+    {
+        stale = true;
+        writeHeader(channel, footer, STALE);
+    }
+
+    /**
+     * @return {@code true} if the latest checkpoint has been marked stale
+     */
+    public synchronized boolean isStale()
+    {
+        return stale;
+    }
+
+    /**
+     * Stops tracking any set, and closes the file.
+     */
+    @Override public synchronized void close() throws IOException
+    {
+        final Tracker tracker = this.tracker;
+        if (tracker != null)
+            tracker.orSet.track(null);
+        channel.close();
+    }
+
+    /**
+     * The captured state of a set, to be written to the checkpoint file
+     */
+    public class Capture
+    {
+        private final byte[] clock;
+        private final Set<E> elements;
+        private boolean written;
+
+        private Capture(byte[] clock, Set<E> elements)
+        {
+            this.clock = clock;
+            this.elements = elements;
+        }
+
+        /**
+         * Writes the capture to the checkpoint file. The set can change concurrently.
+         *
+         * @return the number of bucket images written
+         */
+        public int write() throws IOException
+        {
+            synchronized (OrSetCheckpoint.this)
+            {
+                if (written)
+                    throw new IllegalStateException("Capture has already been written");
+                boolean succeeded = false;
+                try
+                {
+                    final int images = writeCapture(this);
+                    succeeded = this.written = true;
+                    return images;
+                }
+                finally
+                {
+                    tracker.written(this, succeeded);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tracks changes to a set, under the set's monitor
+     */
+    private class Tracker implements OrSet.Tracker<E>
+    {
+        final OrSet<E> orSet;
+        Set<E> dirty = new HashSet<>();
+        /**
+         * The elements being written, and the captured tags of those which have changed since
+         */
+        Set<E> capturing;
+        Map<E, Set<UUID>> preserved;
+
+        Tracker(OrSet<E> orSet)
+        {
+            this.orSet = orSet;
+        }
+
+        @Override public void changing(E element, Set<UUID> ids)
+        {
+            dirty.add(element);
+            if (capturing != null && capturing.contains(element) && !preserved.containsKey(element))
+                preserved.put(element, ids == null ? new HashSet<>() : new HashSet<>(ids));
+        }
+
+        Capture capture(byte[] clock)
+        {
+            if (capturing != null)
+                throw new IllegalStateException("A previous capture has not been written");
+            capturing = dirty;
+            dirty = new HashSet<>();
+            preserved = new HashMap<>();
+            return new Capture(clock, capturing);
+        }
+
+        /**
+         * @return the captured tags of the element, which is absent if they are empty
+         */
+        Set<UUID> captured(E element)
+        {
+            final Set<UUID> ids = preserved.get(element);
+            return ids != null ? ids : orSet.tags(element);
+        }
+
+        void written(Capture capture, boolean succeeded)
+        {
+            synchronized (orSet)
+            {
+                if (!succeeded)
+                    dirty.addAll(capture.elements);
+                capturing = null;
+                preserved = null;
+            }
+        }
+    }
+
+    private Tracker track(OrSet<E> orSet)
+    {
+        tracker = new Tracker(orSet);
+        orSet.track(tracker);
+        return tracker;
+    }
+
+    private int writeCapture(Capture capture) throws IOException
+    {
+        // Group the captured elements by bucket, keyed by encoding
+        final Map<Integer, Map<ByteBuffer, E>> dirtyBuckets = new TreeMap<>();
+        for (E element : capture.elements)
+        {
+            final ByteBuffer encoded = encode(element);
+            dirtyBuckets.computeIfAbsent(bucket(encoded), b -> new HashMap<>()).put(encoded, element);
+        }
+
+        final long liveBytes = Arrays.stream(lengths).asLongStream().sum();
+        final long footerSize = Integer.BYTES + capture.clock.length + (long)buckets * INDEX_ENTRY_SIZE;
+        final boolean rewrite = channel.size() > HEADER_SIZE + 2 * (liveBytes + footerSize);
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        final FileChannel target = rewrite ? FileChannel.open(temporary, CREATE, READ, WRITE, TRUNCATE_EXISTING) :
+            channel;
+        try
+        {
+            if (rewrite)
+                writeHeader(target, 0L, 0);
+            final long[] newOffsets = offsets.clone();
+            final int[] newLengths = lengths.clone();
+            long position = target.size();
+            for (int b = 0; b < buckets; b++)
+            {
+                final Map<ByteBuffer, E> dirty = dirtyBuckets.get(b);
+                if (dirty != null)
+                {
+                    final ByteBuffer image = bucketImage(b, dirty);
+                    newLengths[b] = image.remaining();
+                    newOffsets[b] = image.hasRemaining() ? position : -1L;
+                    position += writeFully(target, image, position);
+                }
+                else if (rewrite && offsets[b] >= 0)
+                {
+                    newOffsets[b] = position;
+                    position += writeFully(target, read(offsets[b], lengths[b]), position);
+                }
+            }
+            final ByteBuffer footer = ByteBuffer.allocate((int)footerSize);
+            footer.putInt(capture.clock.length).put(capture.clock);
+            for (int b = 0; b < buckets; b++)
+                footer.putLong(newOffsets[b]).putInt(newLengths[b]);
+            footer.flip();
+            writeFully(target, footer, position);
+            target.force(false);
+            writeHeader(target, position, 0);
+
+            if (rewrite)
+            {
+                target.close();
+                channel.close();
+                Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+                channel = FileChannel.open(file, READ, WRITE);
+            }
+            System.arraycopy(newOffsets, 0, offsets, 0, buckets);
+            System.arraycopy(newLengths, 0, lengths, 0, buckets);
+            clock = capture.clock;
+            this.footer = position;
+            stale = false;
+            return dirtyBuckets.size();
+        }
+        finally
+        {
+            if (rewrite)
+            {
+                target.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Merges the captured tags of changed elements into the latest image of a bucket.
+     */
+    private ByteBuffer bucketImage(int bucket, Map<ByteBuffer, E> dirty) throws IOException
+    {
+        final Map<ByteBuffer, Set<UUID>> entries = new HashMap<>();
+        if (offsets[bucket] >= 0)
+            decode(read(offsets[bucket], lengths[bucket]), entries::put);
+        synchronized (tracker.orSet)
+        {
+            dirty.forEach((encoded, element) -> {
+                final Set<UUID> ids = tracker.captured(element);
+                if (ids.isEmpty())
+                    entries.remove(encoded);
+                else
+                    entries.put(encoded, ids);
+            });
+        }
+        if (entries.isEmpty())
+            return ByteBuffer.allocate(0);
+
+        final ByteBuffer image = ByteBuffer.allocate(Integer.BYTES + entries.values().stream()
+            .mapToInt(ids -> codec.width() + Integer.BYTES + ids.size() * TAG_SIZE).sum());
+        image.putInt(entries.size());
+        entries.forEach((encoded, ids) -> {
+            image.put(encoded.duplicate()).putInt(ids.size());
+            for (UUID id : ids)
+                image.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+        });
+        image.flip();
+        return image;
+    }
+
+    private void decode(ByteBuffer image, BiConsumer<ByteBuffer, Set<UUID>> consumer)
+    {
+        for (int count = image.getInt(); count > 0; count--)
+        {
+            final ByteBuffer element = (ByteBuffer)image.slice().limit(codec.width());
+            image.position(image.position() + codec.width());
+            final int tagCount = image.getInt();
+            final Set<UUID> ids = new HashSet<>(tagCount * 2);
+            for (int t = 0; t < tagCount; t++)
+                ids.add(new UUID(image.getLong(), image.getLong()));
+            consumer.accept(element, ids);
+        }
+    }
+
+    private ByteBuffer encode(E element)
+    {
+        final ByteBuffer encoded = ByteBuffer.allocate(codec.width());
+        codec.write(element, encoded);
+        encoded.flip();
+        return encoded;
+    }
+
+    private int bucket(ByteBuffer encoded)
+    {
+        return Math.floorMod(encoded.hashCode(), buckets);
+    }
+
+    private void writeHeader(FileChannel channel, long footer, int flags) throws IOException
+    {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(buckets).putInt(codec.width()).putInt(flags).putLong(footer).flip();
+        writeFully(channel, header, 0L);
+        channel.force(false);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Checkpoint file " + file + " is truncated");
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+        return length;
+    }
+}
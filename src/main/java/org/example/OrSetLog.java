@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.stream.Collectors.toList;
+import static org.example.OrSet.Operation.Type.ADD;
+import static org.example.OrSet.Operation.Type.REMOVE;
+
+/**
+ * A persistent log of the operations applied to an {@link OrSet}, from which the set can be rebuilt in time
+ * proportional to the number of its live tags, rather than to its history.
+ * <p>
+ * Operations are appended to segment files of fixed-width records. When a segment is full it is sealed, and sealed
+ * segments are compacted on a background thread, together with the previous compaction, into a new <i>generation</i>:
+ * an add and a remove of the same tag cancel each other out and are dropped, and the surviving adds are partitioned by
+ * a hash of the element encoding and sorted, so that each partition holds one run of tags per element. A set is
+ * {@link #rebuild rebuilt} by decoding the partitions in parallel into one entry of tags per element, putting the
+ * entries into the set in bulk, and then replaying the segments that have not yet been compacted.
+ * <p>
+ * Appended operations are forced to storage according to a {@link Force} policy. If a background compaction fails,
+ * the failure is {@link #compactionFailure() recorded}, and compaction is retried when the next segment is sealed.
+ * <p>
+ * The log must record the whole history of the set, from empty, in the order the operations were applied. A
+ * generation is written to a temporary directory and then atomically renamed, so the log can be re-opened from its
+ * directory after a failure; a partly-written trailing record is ignored.
+ * <p>
+ * Since compaction drops removed tags, a set in delta-state mode cannot be rebuilt: it would lose the removed tags
+ * which prevent a delta from a peer re-adding them.
+ *
+ * @param <E> the set element type. Equal elements must have equal encodings.
+ */
+public class OrSetLog<E> implements Closeable
+{
+    private static final String SEGMENT = ".ops", GENERATION = ".gen", TEMPORARY = ".tmp", PARTITION = "%04d.run";
+    private static final byte ADD_RECORD = 1, REMOVE_RECORD = 2;
+
+    /**
+     * When appended operations are forced to storage
+     */
+    public enum Force
+    {
+        /**
+         * Every append is forced before returning, so no appended operation is lost on a power failure
+         */
+        APPEND,
+        /**
+         * Segments are forced when sealed, so a power failure can lose the operations in the active segment
+         */
+        SEGMENT,
+        /**
+         * Writes are left to the operating system
+         */
+        NEVER
+    }
+
+    private final Path directory;
+    private final OffHeapOrSet.Codec<E> codec;
+    private final long segmentSize;
+    private final int partitions, recordSize;
+    private final Force force;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "or-set-log-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean compactionQueued = new AtomicBoolean();
+    private volatile IOException compactionFailure;
+    private final Object compaction = new Object();
+    /**
+     * The numbers of sealed segments, in order
+     */
+    private final List<Long> sealed = new ArrayList<>();
+    private long generation = -1L, nextSegment = 0L;
+    private FileChannel active;
+    private long activeNumber;
+
+    /**
+     * Opens a log which forces every append, re-opening any existing log in the directory.
+     *
+     * @see #OrSetLog(Path, OffHeapOrSet.Codec, long, int, Force)
+     */
+    public OrSetLog(Path directory, OffHeapOrSet.Codec<E> codec, long segmentSize, int partitions) throws IOException
+    {
+        this(directory, codec, segmentSize, partitions, Force.APPEND);
+    }
+
+    /**
+     * Opens a log, re-opening any existing log in the directory.
+     *
+     * @param directory   the directory in which to keep the log files
+     * @param codec       the element encoding
+     * @param segmentSize the size at which a segment is sealed for compaction
+     * @param partitions  the number of partitions in each generation, which bounds the parallelism of decoding in a
+     *                    rebuild
+     * @param force       when appended operations are forced to storage
+     */
+    public OrSetLog(Path directory, OffHeapOrSet.Codec<E> codec, long segmentSize, int partitions, Force force)
+        throws IOException
+    {
+        this.directory = Files.createDirectories(directory);
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.partitions = partitions;
+        this.force = force;
+        this.recordSize = 1 + 2 * Long.BYTES + codec.width();
+
+        // Recover the latest complete generation and the segments after it
+        final List<Long> segments = new ArrayList<>(), generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory))
+        {
+            for (Path file : files)
+            {
+                final String name = file.getFileName().toString();
+                if (name.endsWith(TEMPORARY))
+                    deleteGeneration(file);
+                else if (name.endsWith(SEGMENT))
+                    segments.add(number(name));
+                else if (name.endsWith(GENERATION))
+                    generations.add(number(name));
+            }
+        }
+        for (long number : generations)
+            generation = Math.max(generation, number);
+        for (long number : generations)
+            if (number != generation)
+                deleteGeneration(generationDir(number, GENERATION));
+        Collections.sort(segments);
+        for (long number : segments)
+        {
+            if (number <= generation)
+                Files.delete(segmentFile(number));
+            else
+                sealed.add(number);
+        }
+        nextSegment = Math.max(generation, segments.isEmpty() ? -1L : segments.get(segments.size() - 1)) + 1;
+        roll();
+    }
+
+    /**
+     * Appends operations to the log, in the order they are applied to the set.
+     *
+     * @param ops the operations applied
+     */
+    public synchronized void append(List<OrSet.Operation<E>> ops) throws IOException
+    {
+        final ByteBuffer records = ByteBuffer.allocate(ops.size() * recordSize);
+        for (OrSet.Operation<E> op : ops)
+            write(op.type == ADD ? ADD_RECORD : REMOVE_RECORD, op.id, op.element, records);
+        records.flip();
+        while (records.hasRemaining())
+            active.write(records);
+        if (force == Force.APPEND)
+            active.force(false);
+
+        if (active.size() >= segmentSize)
+        {
+            sealed.add(activeNumber);
+            roll();
+            if (compactionQueued.compareAndSet(false, true))
+                compactor.execute(() -> {
+                    compactionQueued.set(false);
+                    try
+                    {
+                        compact();
+                        compactionFailure = null;
+                    }
+                    catch (IOException e)
+                    {
+                        compactionFailure = e;
+                    }
+                });
+        }
+    }
+
+    /**
+     * @return the failure of the latest background compaction, if it failed
+     */
+    public Optional<IOException> compactionFailure()
+    {
+        return Optional.ofNullable(compactionFailure);
+    }
+
+    /**
+     * Compacts all the sealed segments into a new generation. This is called automatically on a background thread
+     * when a segment is sealed, but can also be called directly.
+     *
+     * @return the number of segments compacted
+     */
+    public int compact() throws IOException
+    {
+        synchronized (compaction)
+        {
+            final List<Long> segments;
+            final long previous;
+            synchronized (this)
+            {
+                segments = new ArrayList<>(sealed);
+                previous = generation;
+            }
+            if (segments.isEmpty())
+                return 0;
+
+            // The live tags of each element, keyed by the element encoding
+            final Map<ByteBuffer, Set<UUID>> live = new HashMap<>();
+            if (previous >= 0)
+                for (int p = 0; p < partitions; p++)
+                    readRecords(generationDir(previous, GENERATION).resolve(format(PARTITION, p)),
+                                (type, id, element) -> live.computeIfAbsent(element, e -> new HashSet<>()).add(id));
+            for (long segment : segments)
+            {
+                readRecords(segmentFile(segment), (type, id, element) -> {
+                    if (type == ADD_RECORD)
+                    {
+                        live.computeIfAbsent(element, e -> new HashSet<>()).add(id);
+                    }
+                    else
+                    {
+                        // Cancel the add, if any: it must precede the remove in the log
+                        final Set<UUID> ids = live.get(element);
+                        if (ids != null && ids.remove(id) && ids.isEmpty())
+                            live.remove(element);
+                    }
+                });
+            }
+
+            // Write the new generation, removing it if incomplete
+            final long next = segments.get(segments.size() - 1);
+            final Path temporary = Files.createDirectory(generationDir(next, TEMPORARY));
+            try
+            {
+                writeGeneration(live, temporary);
+                Files.move(temporary, generationDir(next, GENERATION), ATOMIC_MOVE);
+            }
+            catch (IOException e)
+            {
+                deleteGeneration(temporary);
+                throw e;
+            }
+
+            synchronized (this)
+            {
+                sealed.removeAll(segments);
+                generation = next;
+            }
+            for (long segment : segments)
+                Files.delete(segmentFile(segment));
+            if (previous >= 0)
+                deleteGeneration(generationDir(previous, GENERATION));
+            return segments.size();
+        }
+    }
+
+    /**
+     * Rebuilds the state of an OR-Set from the log. The partitions of the latest generation are decoded in parallel,
+     * and the resulting entries are then put into the set in bulk, under one acquisition of its monitor.
+     *
+     * @param orSet an empty OR-Set to rebuild, not in delta-state mode
+     */
+    public void rebuild(OrSet<E> orSet) throws IOException
+    {
+        if (orSet.isDeltaState())
+            throw new IllegalArgumentException("Cannot rebuild a delta-state OR-Set without its removed tags");
+        synchronized (compaction)
+        {
+            final List<Long> segments;
+            final long generation;
+            synchronized (this)
+            {
+                active.force(false);
+                segments = new ArrayList<>(sealed);
+                segments.add(activeNumber);
+                generation = this.generation;
+            }
+            if (generation >= 0)
+            {
+                orSet.putEntries(IntStream.range(0, partitions).parallel().mapToObj(p -> {
+                    // Runs of tags for each element are contiguous
+                    final List<Map.Entry<E, Set<UUID>>> entries = new ArrayList<>();
+                    final ByteBuffer[] runElement = { null };
+                    try
+                    {
+                        readRecords(generationDir(generation, GENERATION).resolve(format(PARTITION, p)),
+                                    (type, id, element) -> {
+                                        if (!element.equals(runElement[0]))
+                                        {
+                                            runElement[0] = element;
+                                            entries.add(new AbstractMap.SimpleEntry<>(
+                                                codec.read(element.duplicate()), new HashSet<>()));
+                                        }
+                                        entries.get(entries.size() - 1).getValue().add(id);
+                                    });
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                    return entries;
+                }).flatMap(List::stream).collect(toList()));
+            }
+            for (long segment : segments)
+            {
+                final List<OrSet.Operation<E>> ops = new ArrayList<>();
+                readRecords(segmentFile(segment), (type, id, element) -> ops.add(new OrSet.Operation<>(
+                    type == ADD_RECORD ? ADD : REMOVE, id, codec.read(element.duplicate()))));
+                orSet.apply(ops);
+            }
+        }
+    }
+
+    /**
+     * @return the number of segments which have not been compacted, including the segment being appended to
+     */
+    public synchronized int segments()
+    {
+        return sealed.size() + 1;
+    }
+
+    /**
+     * Closes the log, retaining its files.
+     */
+    @Override public void close() throws IOException
+    {
+        compactor.shutdown();
+        try
+        {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this)
+        {
+            active.close();
+        }
+    }
+
+    /**
+     * Writes the live tags to an empty generation directory, with sorted runs of tags per element in each partition.
+     */
+    private void writeGeneration(Map<ByteBuffer, Set<UUID>> live, Path directory) throws IOException
+    {
+        final List<List<ByteBuffer>> partitioned = new ArrayList<>();
+        for (int p = 0; p < partitions; p++)
+            partitioned.add(new ArrayList<>());
+        live.keySet().forEach(element -> partitioned.get(partition(element)).add(element));
+        for (int p = 0; p < partitions; p++)
+        {
+            final List<ByteBuffer> elements = partitioned.get(p);
+            Collections.sort(elements);
+            final ByteBuffer records = ByteBuffer.allocate(
+                elements.stream().mapToInt(element -> live.get(element).size()).sum() * recordSize);
+            for (ByteBuffer element : elements)
+                for (UUID id : live.get(element))
+                    records.put(ADD_RECORD).putLong(id.getMostSignificantBits())
+                        .putLong(id.getLeastSignificantBits()).put(element.duplicate());
+            records.flip();
+            try (FileChannel channel = FileChannel.open(directory.resolve(format(PARTITION, p)), CREATE_NEW, WRITE))
+            {
+                while (records.hasRemaining())
+                    channel.write(records);
+                channel.force(true);
+            }
+        }
+    }
+
+    private interface RecordConsumer
+    {
+        void accept(byte type, UUID id, ByteBuffer element);
+    }
+
+    private void readRecords(Path file, RecordConsumer consumer) throws IOException
+    {
+        final ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+        // Ignore any partly-written trailing record
+        while (records.remaining() >= recordSize)
+        {
+            final byte type = records.get();
+            final UUID id = new UUID(records.getLong(), records.getLong());
+            final ByteBuffer element = (ByteBuffer)records.slice().limit(codec.width());
+            records.position(records.position() + codec.width());
+            consumer.accept(type, id, element);
+        }
+    }
+
+    private void write(byte type, UUID id, E element, ByteBuffer records)
+    {
+        records.put(type).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+        codec.write(element, records);
+    }
+
+    private int partition(ByteBuffer element)
+    {
+        return Math.floorMod(element.hashCode(), partitions);
+    }
+
+    private void roll() throws IOException
+    {
+        if (active != null)
+        {
+            if (force != Force.NEVER)
+                active.force(false);
+            active.close();
+        }
+        activeNumber = nextSegment++;
+        active = FileChannel.open(segmentFile(activeNumber), CREATE, WRITE, APPEND);
+    }
+
+    private Path segmentFile(long number)
+    {
+        return directory.resolve(format("%016x", number) + SEGMENT);
+    }
+
+    private Path generationDir(long number, String suffix)
+    {
+        return directory.resolve(format("%016x", number) + suffix);
+    }
+
+    private static long number(String name)
+    {
+        return Long.parseUnsignedLong(name.substring(0, name.indexOf('.')), 16);
+    }
+
+    private static void deleteGeneration(Path dir) throws IOException
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir))
+        {
+            for (Path file : files)
+                Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+}
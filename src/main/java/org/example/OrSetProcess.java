@@ -9,12 +9,26 @@ import org.m_ld.clocks.CausalClock;
 import org.m_ld.clocks.Message;
 import org.m_ld.clocks.MessageService;
 
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.io.IOException;
+import java.util.*;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toSet;
+import static org.example.OrSet.Operation.Type.ADD;
+import static org.example.OrSet.Operation.Type.REMOVE;
 
 /**
  * A very inefficient example implementation of the OR-Set CRDT as a process.
+ * <p>
+ * The process can optionally batch its local writes: operations are applied to the local set immediately, but
+ * collected into a window which is only sent, as a single message with a single clock tick, when it reaches a maximum
+ * size or age. An add and a remove of the same tag in one window cancel each other out and are not sent at all.
+ * <p>
+ * Bulk additions and removals are sent immediately, together with any batched operations, as few messages as possible:
+ * one message, unless there are more operations than a maximum message size.
+ * <p>
+ * Instead of polling {@link #elements()}, a consumer can {@link #subscribe subscribe} to element-level changes.
  *
  * @param <C> the message clock type. Must guarantee causal ordering
  * @param <E> the set element type
@@ -22,11 +36,53 @@ import java.util.Set;
 public class OrSetProcess<C extends CausalClock<C>, E> extends CausalCrdtProcess<C, List<OrSet.Operation<E>>>
     implements SetProxy<E, Optional<Message<C, List<OrSet.Operation<E>>>>>
 {
+    /**
+     * The default maximum number of operations in a message sent for a bulk update
+     */
+    public static final int DEFAULT_MAX_MESSAGE_OPS = 10_000;
     private final OrSet<E> orSet = new OrSet<>();
+    private final int maxBatchSize, maxMessageOps;
+    private final long maxBatchMillis;
+    private final Map<UUID, OrSet.Operation<E>> batch = new LinkedHashMap<>();
+    private final SetChangeFeed<C, E> changes = new SetChangeFeed<>();
+    private OrSetCheckpoint<C, E> sendCheckpoint;
+    private volatile IOException checkpointFailure;
+    private long batchStarted;
 
     public OrSetProcess(MessageService<C> messageService)
+    {
+        this(messageService, 1, 0);
+    }
+
+    /**
+     * @param messageService the message service for this process
+     * @param maxBatchSize   the number of local operations at which a batch is sent
+     * @param maxBatchMillis the age of the oldest local operation at which a batch is sent, checked on each local
+     *                       update. The framework should also call {@link #flush()} periodically if local updates
+     *                       may stop for longer than this.
+     */
+    public OrSetProcess(MessageService<C> messageService, int maxBatchSize, long maxBatchMillis)
+    {
+        this(messageService, maxBatchSize, maxBatchMillis, DEFAULT_MAX_MESSAGE_OPS);
+    }
+
+    /**
+     * @param messageService the message service for this process
+     * @param maxBatchSize   the number of local operations at which a batch is sent
+     * @param maxBatchMillis the age of the oldest local operation at which a batch is sent
+     * @param maxMessageOps  the maximum number of operations in a message sent for a bulk update
+     * @see #OrSetProcess(MessageService, int, long)
+     */
+    public OrSetProcess(MessageService<C> messageService, int maxBatchSize, long maxBatchMillis, int maxMessageOps)
     {
         super(messageService);
+
+        if (maxBatchSize < 1 || maxMessageOps < 1)
+            throw new IllegalArgumentException("Batch and message size must be at least one");
+
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchMillis = maxBatchMillis;
+        this.maxMessageOps = maxMessageOps;
     }
 
     public Set<E> elements()
@@ -34,18 +90,233 @@ public class OrSetProcess<C extends CausalClock<C>, E> extends CausalCrdtProcess
         return orSet.elements();
     }
 
+    /**
+     * @return an order-independent digest of the set content
+     * @see OrSet#digest()
+     */
+    public long digest()
+    {
+        return orSet.digest();
+    }
+
+    /**
+     * Subscribes to changes in the elements of this process's set. The first change delivered contains all the
+     * elements present at the time of subscription, as additions.
+     *
+     * @param subscriber the subscriber to changes
+     */
+    public synchronized void subscribe(SetChangeFeed.Subscriber<C, E> subscriber)
+    {
+        changes.subscribe(subscriber, new SetChange<>(time(), orSet.elements(), new HashSet<>()));
+    }
+
+    /**
+     * @return the message for the current batch, if it has been sent as a result of this update
+     */
     public synchronized Optional<Message<C, List<OrSet.Operation<E>>>> add(E element)
     {
-        return orSet.add(element).map(this::updated);
+        final Optional<List<OrSet.Operation<E>>> ops = orSet.add(element);
+        if (ops.isPresent() && changes.hasSubscribers())
+            changes.publish(new SetChange<>(time(), singleton(element), emptySet()));
+        return batched(ops);
     }
 
+    /**
+     * @return the message for the current batch, if it has been sent as a result of this update
+     */
     public synchronized Optional<Message<C, List<OrSet.Operation<E>>>> remove(E element)
     {
-        return orSet.remove(element).map(this::updated);
+        final Optional<List<OrSet.Operation<E>>> ops = orSet.remove(element);
+        if (ops.isPresent() && changes.hasSubscribers())
+            changes.publish(new SetChange<>(time(), emptySet(), singleton(element)));
+        return batched(ops);
+    }
+
+    /**
+     * Adds many elements, sending the current batch and the additions in as few messages as possible.
+     *
+     * @return the messages sent
+     */
+    @Override public synchronized List<Optional<Message<C, List<OrSet.Operation<E>>>>> addAll(
+        Collection<? extends E> elements)
+    {
+        return bulk(orSet.addAll(elements), ADD);
+    }
+
+    /**
+     * Removes many elements, sending the current batch and the removals in as few messages as possible.
+     *
+     * @return the messages sent
+     */
+    @Override public synchronized List<Optional<Message<C, List<OrSet.Operation<E>>>>> removeAll(
+        Collection<? extends E> elements)
+    {
+        return bulk(orSet.removeAll(elements), REMOVE);
+    }
+
+    /**
+     * Sends the current batch of local operations, if any.
+     *
+     * @return a message containing the batched operations, or empty if there is nothing to send
+     */
+    public synchronized Optional<Message<C, List<OrSet.Operation<E>>>> flush()
+    {
+        if (batch.isEmpty())
+            return Optional.empty();
+
+        final List<OrSet.Operation<E>> ops = new ArrayList<>(batch.values());
+        batch.clear();
+        final Message<C, List<OrSet.Operation<E>>> message = updated(ops);
+        sent();
+        return Optional.of(message);
+    }
+
+    /**
+     * Restores the set of this process from a checkpoint, which then tracks the set for subsequent checkpoints. The
+     * message service of this process must have been created with the {@link OrSetCheckpoint#clock() clock} of the
+     * checkpoint, and this process must not yet have any elements.
+     * <p>
+     * The checkpoint must have been written after the last message that this process sent. Otherwise, the restored
+     * process re-uses the ticks of the messages sent since, and peers discard its new messages as already delivered,
+     * so the replicas diverge. This is guaranteed by {@link #checkpointOnSend checkpointing on send}, which marks the
+     * checkpoint stale if it cannot be written.
+     *
+     * @param checkpoint the checkpoint to restore
+     */
+    public synchronized void restore(OrSetCheckpoint<C, E> checkpoint) throws IOException
+    {
+        checkpoint.restore(orSet);
+    }
+
+    /**
+     * Writes a checkpoint whenever this process sends a message, before the message is returned for sending, so that
+     * the process can always be {@link #restore restored} from the checkpoint without re-using a tick. The checkpoint
+     * is written under this process's monitor. It should not also be written with {@link #checkpoint}, which could be
+     * concurrent.
+     * <p>
+     * If the checkpoint cannot be written, the message is still returned for sending, since it has already been
+     * applied to the local set. The failure is {@link #checkpointFailure() recorded}, and the checkpoint is
+     * {@link OrSetCheckpoint#markStale() marked stale} until a later checkpoint on send succeeds.
+     *
+     * @param checkpoint the checkpoint to write on send, or {@code null} to stop
+     */
+    public synchronized void checkpointOnSend(OrSetCheckpoint<C, E> checkpoint)
+    {
+        this.sendCheckpoint = checkpoint;
+    }
+
+    /**
+     * @return the failure of the latest checkpoint on send, if it failed
+     */
+    public Optional<IOException> checkpointFailure()
+    {
+        return Optional.ofNullable(checkpointFailure);
+    }
+
+    /**
+     * Writes an incremental checkpoint of the set and clock of this process. Only the capture holds this process's
+     * monitor; the checkpoint is written concurrently with updates and message delivery. Any batched operations must
+     * first be {@link #flush() flushed}, since they have not yet been sent.
+     *
+     * @param checkpoint the checkpoint to write
+     * @return the number of bucket images written
+     */
+    public int checkpoint(OrSetCheckpoint<C, E> checkpoint) throws IOException
+    {
+        final OrSetCheckpoint<C, E>.Capture capture;
+        synchronized (this)
+        {
+            if (!batch.isEmpty())
+                throw new IllegalStateException("Batched operations must be flushed before a checkpoint");
+            capture = checkpoint.capture(orSet, time());
+        }
+        return capture.write();
     }
 
     @Override protected void merge(List<OrSet.Operation<E>> operation)
     {
-        orSet.apply(operation);
+        if (changes.hasSubscribers())
+        {
+            final Set<E> added = new HashSet<>(), removed = new HashSet<>();
+            if (orSet.apply(operation, added, removed))
+                changes.publish(new SetChange<>(time(), added, removed));
+        }
+        else
+        {
+            orSet.apply(operation);
+        }
+    }
+
+    private Optional<Message<C, List<OrSet.Operation<E>>>> batched(Optional<List<OrSet.Operation<E>>> ops)
+    {
+        ops.ifPresent(this::addToBatch);
+        return batch.size() >= maxBatchSize || System.currentTimeMillis() - batchStarted >= maxBatchMillis ?
+            flush() : Optional.empty();
+    }
+
+    private List<Optional<Message<C, List<OrSet.Operation<E>>>>> bulk(
+        List<Optional<List<OrSet.Operation<E>>>> results, OrSet.Operation.Type type)
+    {
+        results.forEach(result -> result.ifPresent(ops -> {
+            if (changes.hasSubscribers())
+            {
+                final Set<E> elements = ops.stream().map(op -> op.element).collect(toSet());
+                changes.publish(type == REMOVE ? new SetChange<>(time(), new HashSet<>(), elements) :
+                                    new SetChange<>(time(), elements, new HashSet<>()));
+            }
+            addToBatch(ops);
+        }));
+        // Send the batch in chunks of the maximum message size
+        final List<Optional<Message<C, List<OrSet.Operation<E>>>>> messages = new ArrayList<>();
+        for (Iterator<OrSet.Operation<E>> ops = batch.values().iterator(); ops.hasNext(); )
+        {
+            final List<OrSet.Operation<E>> chunk = new ArrayList<>(Math.min(batch.size(), maxMessageOps));
+            while (ops.hasNext() && chunk.size() < maxMessageOps)
+                chunk.add(ops.next());
+            messages.add(Optional.of(updated(chunk)));
+        }
+        batch.clear();
+        if (!messages.isEmpty())
+            sent();
+        return messages;
+    }
+
+    /**
+     * Writes the checkpoint on send, if any, once the batch is empty
+     */
+    private void sent()
+    {
+        if (sendCheckpoint != null)
+        {
+            try
+            {
+                sendCheckpoint.capture(orSet, time()).write();
+                checkpointFailure = null;
+            }
+            catch (IOException e)
+            {
+                // The checkpoint does not include the ticks of the sent messages, so must not be restored
+                try
+                {
+                    sendCheckpoint.markStale();
+                }
+                catch (IOException marking)
+                {
+                    e.addSuppressed(marking);
+                }
+                checkpointFailure = e;
+            }
+        }
+    }
+
+    private void addToBatch(List<OrSet.Operation<E>> ops)
+    {
+        ops.forEach(op -> {
+            if (batch.isEmpty())
+                batchStarted = System.currentTimeMillis();
+            // A tag is only ever added once, and removed once, so a remove can only cancel an add
+            if (op.type != REMOVE || batch.remove(op.id) == null)
+                batch.put(op.id, op);
+        });
     }
 }
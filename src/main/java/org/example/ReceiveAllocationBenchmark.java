@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.CausalClock;
+import org.m_ld.clocks.Message;
+import org.m_ld.clocks.MessagePool;
+import org.m_ld.clocks.MessageService;
+import org.m_ld.clocks.tree.SyncTreeClockMessageService;
+import org.m_ld.clocks.tree.TreeClock;
+import org.m_ld.clocks.tree.TreeClockMessageService;
+import org.m_ld.clocks.vector.SyncVectorClockMessageService;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static java.lang.String.format;
+
+/**
+ * Counts the bytes allocated by a {@link CausalCrdtProcess} per message received, from the call to
+ * {@link CausalCrdtProcess#receive(Message)} to the merge of the message data, for each type of message service. The
+ * messages are in causal order, and are taken from a {@link MessagePool}, which is pre-filled.
+ * <p>
+ * Requires a JVM supporting thread allocation counting, otherwise reports that allocation counting is unavailable.
+ * Prints one line per message service, as tab-separated values of service, messages, and bytes allocated per
+ * message.
+ */
+public class ReceiveAllocationBenchmark
+{
+    private static final int MESSAGES = 100_000;
+
+    private static class Counter<C extends CausalClock<C>> extends CausalCrdtProcess<C, Integer>
+    {
+        long total;
+
+        Counter(MessageService<C> messageService)
+        {
+            super(messageService);
+        }
+
+        @Override protected void merge(Integer operation)
+        {
+            total += operation;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        System.out.println("service\tmessages\talloc_bytes_per_msg");
+        final TreeClock.Fork fork = TreeClock.GENESIS.fork();
+        report("SyncTreeClockMessageService",
+               new SyncTreeClockMessageService(fork.left), new SyncTreeClockMessageService(fork.right));
+        report("TreeClockMessageService",
+               new TreeClockMessageService(fork.left), new TreeClockMessageService(fork.right));
+        final SyncVectorClockMessageService<UUID> sender = new SyncVectorClockMessageService<>(UUID::randomUUID);
+        report("SyncVectorClockMessageService",
+               sender, new SyncVectorClockMessageService<>(sender.fork(), UUID::randomUUID));
+    }
+
+    private static <C extends CausalClock<C>> void report(
+        String name, MessageService<C> sender, MessageService<C> receiver)
+    {
+        final Counter<C> process = new Counter<>(receiver);
+        final MessagePool<C, Integer> pool = new MessagePool<>(MESSAGES);
+        final Integer data = 1;
+        // Warm up, and fill the pool
+        receiveAll(process, send(sender, pool, data));
+        // Messages are created before measuring, so that only receive is measured
+        final List<Message<C, Integer>> messages = send(sender, pool, data);
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean) ||
+            !((com.sun.management.ThreadMXBean)threadBean).isThreadAllocatedMemorySupported())
+        {
+            System.out.println(format("%s\t%d\tallocation counting unavailable", name, MESSAGES));
+            return;
+        }
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)threadBean;
+        final long thread = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        receiveAll(process, messages);
+        final long after = threads.getThreadAllocatedBytes(thread);
+        if (process.total != 2L * MESSAGES)
+            throw new IllegalStateException("Messages not delivered");
+        System.out.println(format("%s\t%d\t%.2f", name, MESSAGES, (double)(after - before) / MESSAGES));
+    }
+
+    private static <C extends CausalClock<C>> List<Message<C, Integer>> send(MessageService<C> sender,
+                                                                             MessagePool<C, Integer> pool,
+                                                                             Integer data)
+    {
+        final List<Message<C, Integer>> messages = new ArrayList<>(MESSAGES);
+        for (int m = 0; m < MESSAGES; m++)
+            messages.add(pool.acquire(sender.send(), data));
+        return messages;
+    }
+
+    private static <C extends CausalClock<C>> void receiveAll(Counter<C> process, List<Message<C, Integer>> messages)
+    {
+        // Indexed, so that receiving does not allocate an iterator
+        for (int m = 0; m < messages.size(); m++)
+            process.receive(messages.get(m));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * An immutable, element-level change to a set, as visible to a process at some time.
+ *
+ * @param <C> the clock type
+ * @param <E> the set element type
+ */
+public final class SetChange<C, E>
+{
+    private final C time;
+    private final Set<E> added, removed;
+
+    SetChange(C time, Set<E> added, Set<E> removed)
+    {
+        this.time = time;
+        this.added = unmodifiableSet(added);
+        this.removed = unmodifiableSet(removed);
+    }
+
+    /**
+     * @return the process clock at which the change became visible
+     */
+    public C time()
+    {
+        return time;
+    }
+
+    /**
+     * @return the elements which were not in the set before the change, and are after it
+     */
+    public Set<E> added()
+    {
+        return added;
+    }
+
+    /**
+     * @return the elements which were in the set before the change, and are not after it
+     */
+    public Set<E> removed()
+    {
+        return removed;
+    }
+
+    /**
+     * @return {@code true} if no elements were added or removed
+     */
+    public boolean isEmpty()
+    {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * Combines this change with a following change. An element added by one and removed by the other is not changed.
+     *
+     * @param next a change following this one
+     * @return the net change, at the time of the following change
+     */
+    SetChange<C, E> then(SetChange<C, E> next)
+    {
+        final Set<E> added = new HashSet<>(this.added), removed = new HashSet<>(this.removed);
+        for (E element : next.removed)
+            if (!added.remove(element))
+                removed.add(element);
+        for (E element : next.added)
+            if (!removed.remove(element))
+                added.add(element);
+        return new SetChange<>(next.time, added, removed);
+    }
+
+    @Override public String toString()
+    {
+        return "+" + added + " -" + removed + " @ " + time;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A feed of changes to a set, for subscribers who need to track the set content without taking snapshots.
+ * <p>
+ * The subscription protocol follows that of {@code java.util.concurrent.Flow}, without completion, since a set does
+ * not end. Subscribers signal demand with {@link Subscription#request(long)}. While a subscriber has no outstanding
+ * demand, the changes published to it are combined into a single pending change, so a slow subscriber costs memory in
+ * proportion to the number of distinct elements changed, and then receives the net change.
+ * <p>
+ * Changes are delivered synchronously, on the thread that publishes them or requests them, so subscribers must not
+ * block.
+ *
+ * @param <C> the clock type
+ * @param <E> the set element type
+ */
+public class SetChangeFeed<C, E>
+{
+    private final List<SubscriptionImpl> subscriptions = new CopyOnWriteArrayList<>();
+
+    public interface Subscriber<C, E>
+    {
+        /**
+         * Called once, before any changes are delivered.
+         *
+         * @param subscription the subscription, with which to request changes
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called for each requested change.
+         *
+         * @param change the next change
+         */
+        void onNext(SetChange<C, E> change);
+    }
+
+    public interface Subscription
+    {
+        /**
+         * @param n the number of further changes to deliver; must be positive
+         */
+        void request(long n);
+
+        /**
+         * Stops delivery of changes.
+         */
+        void cancel();
+    }
+
+    /**
+     * @return {@code true} if there are any subscribers
+     */
+    public boolean hasSubscribers()
+    {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Subscribes to changes.
+     *
+     * @param subscriber the subscriber
+     * @param initial    the first change to deliver, e.g. the current set content as additions
+     */
+    void subscribe(Subscriber<C, E> subscriber, SetChange<C, E> initial)
+    {
+        final SubscriptionImpl subscription = new SubscriptionImpl(subscriber, initial);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Publishes a change to all subscribers.
+     *
+     * @param change the change
+     */
+    void publish(SetChange<C, E> change)
+    {
+        for (SubscriptionImpl subscription : subscriptions)
+            subscription.publish(change);
+    }
+
+    private class SubscriptionImpl implements Subscription
+    {
+        final Subscriber<C, E> subscriber;
+        SetChange<C, E> pending;
+        long demand = 0L;
+        boolean delivering = false;
+
+        SubscriptionImpl(Subscriber<C, E> subscriber, SetChange<C, E> initial)
+        {
+            this.subscriber = subscriber;
+            this.pending = initial;
+        }
+
+        @Override public synchronized void request(long n)
+        {
+            if (n <= 0)
+                throw new IllegalArgumentException("Requested changes must be positive");
+
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            deliver();
+        }
+
+        @Override public void cancel()
+        {
+            subscriptions.remove(this);
+        }
+
+        synchronized void publish(SetChange<C, E> change)
+        {
+            pending = pending == null ? change : pending.then(change);
+            deliver();
+        }
+
+        private void deliver()
+        {
+            // A request from within onNext is picked up by the loop
+            if (!delivering)
+            {
+                delivering = true;
+                try
+                {
+                    while (demand > 0 && pending != null && subscriptions.contains(this))
+                    {
+                        final SetChange<C, E> next = pending;
+                        pending = null;
+                        if (!next.isEmpty())
+                        {
+                            demand--;
+                            subscriber.onNext(next);
+                        }
+                    }
+                }
+                finally
+                {
+                    delivering = false;
+                }
+            }
+        }
+    }
+}
@@ -5,8 +5,12 @@
 
 package org.example;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
+import static java.util.stream.Collectors.toList;
+
 /**
  * A proxy for a Set, which exposes some operation type {@code O}.
  *
@@ -27,6 +31,30 @@ public interface SetProxy<E, O>
      */
     O remove(E element);
 
+    /**
+     * Adds many elements. Implementations may enact fewer operations than there are elements, for example by
+     * combining them into a single operation.
+     *
+     * @param elements the elements to add to the underlying set
+     * @return the operations enacted
+     */
+    default List<O> addAll(Collection<? extends E> elements)
+    {
+        return elements.stream().map(this::add).collect(toList());
+    }
+
+    /**
+     * Removes many elements. Implementations may enact fewer operations than there are elements, for example by
+     * combining them into a single operation.
+     *
+     * @param elements the elements to remove from the underlying set
+     * @return the operations enacted
+     */
+    default List<O> removeAll(Collection<? extends E> elements)
+    {
+        return elements.stream().map(this::remove).collect(toList());
+    }
+
     /**
      * @return a snapshot of all the elements in the set. Not expected to track changes to the underlying data. May be
      * expensive due to the necessity to maintain a consistent view while retrieving the data.
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.CausalClock;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Takes consistent global snapshots of a group of {@link MvccOrSetProcess} replicas, without pausing them.
+ * <p>
+ * A global snapshot is requested for a target clock, the <i>cut</i>, which is typically the current clock of one of
+ * the replicas, the initiator. The clock of any process identifies the causal past of its latest event, so every
+ * replica has already performed all its events in the cut, by the time the request is made. Each replica's part of
+ * the snapshot is then its state at the point where its own clock passed the cut: its latest version whose
+ * operations had all been seen by the cut. This is captured copy-on-write from the replica's retained versions, so
+ * the replicas continue to update and deliver messages. Replicas must retain enough versions to cover the time
+ * between the creation of the cut and the request, otherwise the request fails.
+ * <p>
+ * The snapshot does not include messages in flight at the cut, i.e. sent before it but delivered after it; since the
+ * replicas are CRDTs, the replicas restored from a snapshot will converge when those messages are re-sent.
+ *
+ * @param <K> the replica key type
+ * @param <C> the message clock type
+ * @param <E> the set element type
+ */
+public class SnapshotCoordinator<K, C extends CausalClock<C>, E>
+{
+    private final Map<K, MvccOrSetProcess<C, E>> replicas;
+
+    /**
+     * A causally consistent snapshot of every replica at a cut. The replica snapshots must be read before this global
+     * snapshot is closed.
+     */
+    public static class GlobalSnapshot<K, C extends CausalClock<C>, E> implements AutoCloseable
+    {
+        private final C cut;
+        private final Map<K, MvccOrSet<C, E>.Snapshot> replicas;
+
+        private GlobalSnapshot(C cut, Map<K, MvccOrSet<C, E>.Snapshot> replicas)
+        {
+            this.cut = cut;
+            this.replicas = Collections.unmodifiableMap(replicas);
+        }
+
+        /**
+         * @return the clock identifying the cut
+         */
+        public C cut()
+        {
+            return cut;
+        }
+
+        /**
+         * @return the snapshot of each replica at the cut, by replica key
+         */
+        public Map<K, MvccOrSet<C, E>.Snapshot> replicas()
+        {
+            return replicas;
+        }
+
+        @Override public void close()
+        {
+            replicas.values().forEach(MvccOrSet.Snapshot::close);
+        }
+    }
+
+    /**
+     * @param replicas the replicas in the group, by key
+     */
+    public SnapshotCoordinator(Map<K, MvccOrSetProcess<C, E>> replicas)
+    {
+        this.replicas = new LinkedHashMap<>(replicas);
+    }
+
+    /**
+     * Takes a global snapshot with the current clock of the given replica as the cut.
+     *
+     * @param initiator the key of the initiating replica
+     * @return a global snapshot. Must be closed.
+     */
+    public GlobalSnapshot<K, C, E> snapshot(K initiator)
+    {
+        final MvccOrSet<C, E>.Snapshot initial = replica(initiator).snapshot();
+        try
+        {
+            return snapshot(initial.time(), initiator, initial);
+        }
+        catch (RuntimeException e)
+        {
+            initial.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes a global snapshot at the given cut.
+     *
+     * @param cut the target clock, which must have been the clock of some process in the group
+     * @return a global snapshot. Must be closed.
+     * @throws IllegalStateException if any replica no longer retains its version at the cut
+     */
+    public GlobalSnapshot<K, C, E> snapshot(C cut)
+    {
+        return snapshot(cut, null, null);
+    }
+
+    private GlobalSnapshot<K, C, E> snapshot(C cut, K initiator, MvccOrSet<C, E>.Snapshot initial)
+    {
+        final Map<K, MvccOrSet<C, E>.Snapshot> captured = new LinkedHashMap<>();
+        try
+        {
+            replicas.forEach((key, replica) -> captured.put(key, key.equals(initiator) ? initial : replica
+                .snapshot(cut)
+                .orElseThrow(() -> new IllegalStateException(format("Replica %s has not retained the cut", key)))));
+            return new GlobalSnapshot<>(cut, captured);
+        }
+        catch (RuntimeException e)
+        {
+            captured.values().stream().filter(snapshot -> snapshot != initial).forEach(MvccOrSet.Snapshot::close);
+            throw e;
+        }
+    }
+
+    private MvccOrSetProcess<C, E> replica(K key)
+    {
+        final MvccOrSetProcess<C, E> replica = replicas.get(key);
+        if (replica == null)
+            throw new IllegalArgumentException(format("No replica %s", key));
+        return replica;
+    }
+}
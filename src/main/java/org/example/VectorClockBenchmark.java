@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.vector.DenseVectorClock;
+import org.m_ld.clocks.vector.VectorClock;
+import org.m_ld.clocks.vector.WireVectorClock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import static java.lang.String.format;
+
+/**
+ * Compares the cost of joining and comparing large vector clocks, between the map-based {@link WireVectorClock} and
+ * the array-based {@link DenseVectorClock}. Prints one line per measurement, as tab-separated values of clock size,
+ * implementation, operation and nanoseconds per operation.
+ */
+public class VectorClockBenchmark
+{
+    private static final long TARGET_NANOS = 500_000_000L;
+    private static volatile long sink;
+
+    public static void main(String[] args)
+    {
+        final int[] sizes = args.length > 0 ?
+            Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : new int[]{ 1_000, 10_000, 100_000 };
+        System.out.println("size\timpl\top\tns/op");
+        for (int size : sizes)
+        {
+            final Random random = new Random(size);
+            final long[] ticks1 = new long[size], ticks2 = new long[size];
+            final Map<Integer, Long> vector1 = new HashMap<>(), vector2 = new HashMap<>();
+            for (int i = 0; i < size; i++)
+            {
+                // Clock 2 is strictly ahead, so that comparisons have to scan the whole vector
+                vector1.put(i, ticks1[i] = random.nextInt(1000));
+                vector2.put(i, ticks2[i] = ticks1[i] + 1);
+            }
+            final WireVectorClock<Integer>
+                wire1 = WireVectorClock.clock(0, vector1), wire2 = WireVectorClock.clock(1, vector2);
+            final DenseVectorClock
+                dense1 = DenseVectorClock.clock(0, ticks1), dense2 = DenseVectorClock.clock(1, ticks2);
+
+            report(size, "map", "join", () -> join(wire1, wire2).vector().size());
+            report(size, "dense", "join", () -> dense1.join(dense2).size());
+            report(size, "map", "anyLt", () -> wire2.anyLt(wire1) ? 1 : 0);
+            report(size, "dense", "anyLt", () -> dense2.anyLt(dense1) ? 1 : 0);
+            report(size, "map", "compare", () -> wire1.compare(wire2).ordinal());
+            report(size, "dense", "compare", () -> dense1.compare(dense2).ordinal());
+        }
+    }
+
+    /**
+     * The join performed by {@link org.m_ld.clocks.vector.VectorClockMessageService}.
+     */
+    private static VectorClock<Integer> join(VectorClock<Integer> clock, VectorClock<Integer> other)
+    {
+        final Map<Integer, Long> vector = new HashMap<>(clock.vector());
+        other.vector().forEach((pid, ticks) -> vector.merge(pid, ticks, Math::max));
+        return WireVectorClock.clock(clock.processId(), vector);
+    }
+
+    private static void report(int size, String impl, String op, LongSupplier operation)
+    {
+        measure(operation); // Warm up
+        System.out.println(format("%d\t%s\t%s\t%.1f", size, impl, op, measure(operation)));
+    }
+
+    private static double measure(LongSupplier operation)
+    {
+        long ops = 0, result = 0;
+        final long start = System.nanoTime();
+        long elapsed;
+        do
+        {
+            result += operation.getAsLong();
+            ops++;
+        }
+        while ((elapsed = System.nanoTime() - start) < TARGET_NANOS);
+        sink = result;
+        return (double)elapsed / ops;
+    }
+}
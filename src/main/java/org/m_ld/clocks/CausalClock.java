@@ -14,4 +14,21 @@ public interface CausalClock<T>
      * @return {@code true} if any of the ticks for this clock are less than the ticks for the other clock.
      */
     boolean anyLt(T other);
+
+    /**
+     * Has this clock seen the event at the given time? This is the case if this clock has at least as many ticks for
+     * the process of the given time, as the given time has itself.
+     *
+     * @param time the time of some event, such as a message being sent
+     * @return {@code true} if this clock has seen the event
+     */
+    boolean hasSeen(T time);
+
+    /**
+     * Compares all the ticks of this clock with the other clock, including those for the processes of both clocks.
+     *
+     * @param other another clock
+     * @return the causal order of this clock relative to the other clock
+     */
+    CausalOrder compare(T other);
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+/**
+ * The causal (partial) order of one clock relative to another.
+ */
+public enum CausalOrder
+{
+    /**
+     * All the ticks of the clock are less than or equal to the other's, and some are less
+     */
+    BEFORE,
+    /**
+     * All the ticks of the clock are greater than or equal to the other's, and some are greater
+     */
+    AFTER,
+    /**
+     * All the ticks of the clock are equal to the other's
+     */
+    EQUAL,
+    /**
+     * Some ticks of the clock are less than the other's, and some are greater
+     */
+    CONCURRENT;
+
+    /**
+     * @param anyLess    whether any ticks of a clock are less than the other's
+     * @param anyGreater whether any ticks of a clock are greater than the other's
+     * @return the causal order of the clock relative to the other
+     */
+    public static CausalOrder of(boolean anyLess, boolean anyGreater)
+    {
+        return anyLess ? anyGreater ? CONCURRENT : BEFORE : anyGreater ? AFTER : EQUAL;
+    }
+}
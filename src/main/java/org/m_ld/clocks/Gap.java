@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+
+/**
+ * A causal gap: a range of ticks of some process which a clock has not yet seen, but which a message depends on.
+ * Suitable for requesting a targeted re-transmission of the missing messages.
+ *
+ * @param <P> the type of the process identity
+ */
+public final class Gap<P>
+{
+    /**
+     * The process identity for which ticks are missing
+     */
+    public final P process;
+    /**
+     * The ticks that are missing are greater than this, which is the ticks already seen
+     */
+    public final long after;
+    /**
+     * The ticks that are missing are less than or equal to this, which is the ticks depended upon
+     */
+    public final long upTo;
+
+    public Gap(P process, long after, long upTo)
+    {
+        if (upTo <= after)
+            throw new IllegalArgumentException("Gap must include at least one tick");
+
+        this.process = process;
+        this.after = after;
+        this.upTo = upTo;
+    }
+
+    /**
+     * Aggregates gaps, such as those from all the messages in a buffer, so that there is at most one gap per process.
+     *
+     * @param gaps the gaps to aggregate
+     * @return one gap per process, covering all the given gaps for that process
+     */
+    public static <P> List<Gap<P>> aggregate(Stream<Gap<P>> gaps)
+    {
+        final Map<P, Gap<P>> aggregate = new LinkedHashMap<>();
+        gaps.forEach(gap -> aggregate.merge(gap.process, gap, (g1, g2) -> new Gap<>(
+            gap.process, Math.min(g1.after, g2.after), Math.max(g1.upTo, g2.upTo))));
+        return new ArrayList<>(aggregate.values());
+    }
+
+    @Override public boolean equals(Object o)
+    {
+        return o instanceof Gap &&
+            Objects.equals(process, ((Gap)o).process) && after == ((Gap)o).after && upTo == ((Gap)o).upTo;
+    }
+
+    @Override public int hashCode()
+    {
+        return Objects.hash(process, after, upTo);
+    }
+
+    @Override public String toString()
+    {
+        return format("%s (%d..%d]", process, after, upTo);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * A message whose time has been decoded from the wire, but whose data is kept in its encoded form until it is
+ * required, which is normally when the {@link MessageService} delivers it. This means that messages waiting in a
+ * buffer for their causes, or discarded, are never decoded.
+ * <p>
+ * The payload is held as given; if it is a slice of a larger frame, the whole frame is retained. If frames are
+ * pooled, the payload must be copied.
+ * <p>
+ * This class is not thread-safe, and is intended to be delivered by a single thread.
+ *
+ * @param <C> the message clock type
+ * @param <D> the message data type
+ */
+public class LazyMessage<C, D> implements Message<C, D>
+{
+    private final C time;
+    private ByteBuffer payload;
+    private Function<? super ByteBuffer, ? extends D> decoder;
+    private D data;
+
+    /**
+     * @param time    the decoded message time
+     * @param payload the encoded message data
+     * @param decoder decodes the message data from the payload
+     */
+    public LazyMessage(C time, ByteBuffer payload, Function<? super ByteBuffer, ? extends D> decoder)
+    {
+        this.time = time;
+        this.payload = payload;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public C time()
+    {
+        return time;
+    }
+
+    /**
+     * Decodes the payload, if it has not already been decoded. The payload is then released.
+     */
+    @Override
+    public D data()
+    {
+        if (payload != null)
+        {
+            data = decoder.apply(payload.duplicate());
+            payload = null;
+            decoder = null;
+        }
+        return data;
+    }
+
+    /**
+     * @return {@code true} if the message data has been decoded
+     */
+    public boolean isDecoded()
+    {
+        return payload == null;
+    }
+
+    /**
+     * @return a read-only view of the encoded message data, e.g. for forwarding
+     * @throws IllegalStateException if the data has already been decoded
+     */
+    public ByteBuffer payload()
+    {
+        if (payload == null)
+            throw new IllegalStateException("Message payload has been decoded");
+        return payload.asReadOnlyBuffer();
+    }
+
+    @Override public String toString()
+    {
+        return (payload == null ? String.valueOf(data) : payload.remaining() + " bytes") + " @ " + time;
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An append-only log of the wire messages seen by a process, from which a lagging peer can be sent exactly the
+ * messages it is missing, in causal order.
+ * <p>
+ * Messages must be appended in the order in which they are sent or delivered by the local process, so that the log
+ * order is consistent with causal order: that is, a sent message after {@link MessageService#send()}, and a received
+ * message when it is delivered by the {@link MessageService}.
+ * <p>
+ * The log is stored as a sequence of segment files, each containing length-prefixed wire messages, so that the result
+ * of {@link #transferMissing(Object, WritableByteChannel)} is a framed stream. Alongside each segment is an index file
+ * of the message times, using Java serialization, from which the log is re-opened. The times are indexed in memory by
+ * sender, in tick order; so for each sender, the messages a peer is missing are found by a binary search for the first
+ * message the peer has not seen. Segments are deleted by {@link #retain(Iterable)} when every peer has seen all their
+ * messages.
+ *
+ * @param <C> the message clock type, which must be serializable
+ */
+public class MessageLog<C> implements Closeable
+{
+    private static final String SEGMENT = ".log", INDEX = ".idx";
+    private final Path directory;
+    private final long segmentSize;
+    private final BiPredicate<? super C, ? super C> seen;
+    private final Function<? super C, ?> sender;
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    /**
+     * The sequence numbers of the messages from each sender, in log order
+     */
+    private final Map<Object, List<Long>> senders = new HashMap<>();
+    private long nextSegment = 0L, nextSequence = 0L;
+
+    private class Segment
+    {
+        final Path file, indexFile;
+        final FileChannel channel, indexChannel;
+        final List<C> times = new ArrayList<>();
+        final List<Long> offsets = new ArrayList<>();
+        /**
+         * The sequence number of the first message in the segment
+         */
+        final long base;
+
+        Segment(long number) throws IOException
+        {
+            this.file = directory.resolve(format("%016x", number) + SEGMENT);
+            this.indexFile = directory.resolve(format("%016x", number) + INDEX);
+            this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+            this.indexChannel = FileChannel.open(indexFile, CREATE, READ, WRITE);
+            this.base = nextSequence;
+        }
+
+        /**
+         * Reads the index of an existing segment, truncating any entry that was not completely written.
+         */
+        void recover() throws IOException
+        {
+            final ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+            long end = 0L;
+            while (index.remaining() >= Long.BYTES + Integer.BYTES)
+            {
+                final int start = index.position();
+                final long offset = index.getLong();
+                final int timeLength = index.getInt();
+                if (offset != end || index.remaining() < timeLength || channel.size() < offset + Integer.BYTES)
+                {
+                    index.position(start);
+                    break;
+                }
+                final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+                readFully(channel, length, offset);
+                if (channel.size() < offset + Integer.BYTES + length.getInt(0))
+                {
+                    index.position(start);
+                    break;
+                }
+                final byte[] time = new byte[timeLength];
+                index.get(time);
+                add(deserialize(time), offset);
+                end = offset + Integer.BYTES + length.getInt(0);
+            }
+            indexChannel.truncate(index.position());
+            // Appends are written at the channel position
+            channel.truncate(end).position(end);
+        }
+
+        void add(C time, long offset)
+        {
+            senders.computeIfAbsent(sender.apply(time), s -> new ArrayList<>()).add(nextSequence++);
+            times.add(time);
+            offsets.add(offset);
+        }
+
+        long end() throws IOException
+        {
+            return channel.size();
+        }
+
+        long offset(int entry) throws IOException
+        {
+            return entry < offsets.size() ? offsets.get(entry) : end();
+        }
+
+        boolean allSeen(C peerTime)
+        {
+            return times.stream().allMatch(time -> seen.test(peerTime, time));
+        }
+
+        void close() throws IOException
+        {
+            channel.close();
+            indexChannel.close();
+        }
+    }
+
+    /**
+     * Opens a log, re-opening any existing log in the directory.
+     *
+     * @param directory   the directory in which to keep segment files
+     * @param segmentSize the size at which a segment is closed for appends
+     * @param seen        a predicate to determine whether a peer's clock (the first argument) has seen a message with a
+     *                    given time (the second argument), e.g. {@code TreeClock::hasSeen}
+     * @param sender      a key for the sender of a message with a given time, e.g. {@code TreeClock::identity} or
+     *                    {@code VectorClock::processId}
+     */
+    public MessageLog(Path directory, long segmentSize, BiPredicate<? super C, ? super C> seen,
+                      Function<? super C, ?> sender) throws IOException
+    {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.seen = seen;
+        this.sender = sender;
+
+        final List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT))
+        {
+            for (Path file : files)
+            {
+                final String name = file.getFileName().toString();
+                numbers.add(Long.parseUnsignedLong(name.substring(0, name.length() - SEGMENT.length()), 16));
+            }
+        }
+        Collections.sort(numbers);
+        for (long number : numbers)
+        {
+            final Segment segment = new Segment(number);
+            segments.add(segment);
+            segment.recover();
+            nextSegment = number + 1;
+        }
+    }
+
+    /**
+     * Appends a message to the log.
+     *
+     * @param time the message time
+     * @param wire the message as it appears on the wire
+     */
+    public synchronized void append(C time, ByteBuffer wire) throws IOException
+    {
+        if (segments.isEmpty() || segments.getLast().end() >= segmentSize)
+            segments.add(new Segment(nextSegment++));
+
+        final Segment segment = segments.getLast();
+        final long offset = segment.end();
+        final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES).putInt(0, wire.remaining());
+        final ByteBuffer[] entry = { length, wire.duplicate() };
+        while (entry[0].hasRemaining() || entry[1].hasRemaining())
+            segment.channel.write(entry, 0, 2);
+
+        // The index entry is written last, so that it only refers to a complete message
+        final byte[] timeBytes = serialize(time);
+        final ByteBuffer indexEntry = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + timeBytes.length);
+        indexEntry.putLong(offset).putInt(timeBytes.length).put(timeBytes).flip();
+        while (indexEntry.hasRemaining())
+            segment.indexChannel.write(indexEntry, segment.indexChannel.size());
+        segment.add(time, offset);
+    }
+
+    /**
+     * Transfers the messages that a peer has not seen to the given channel, in causal order, as length-prefixed wire
+     * messages. Contiguous runs of messages are transferred directly from the log files, without copying where the
+     * platform supports it.
+     *
+     * @param peerTime the peer's current clock
+     * @param target   the channel to write to, e.g. a socket channel
+     * @return the number of bytes transferred
+     */
+    public synchronized long transferMissing(C peerTime, WritableByteChannel target) throws IOException
+    {
+        final long[] missing = missing(peerTime);
+        long transferred = 0L;
+        Segment segment = null;
+        for (int i = 0; i < missing.length; )
+        {
+            segment = segmentOf(missing[i], segment);
+            // Find the run of missing messages in this segment
+            final int start = (int)(missing[i] - segment.base);
+            int entry = start;
+            while (++i < missing.length && missing[i] == segment.base + entry + 1 && entry + 1 < segment.times.size())
+                entry++;
+            long position = segment.offset(start);
+            final long end = segment.offset(entry + 1);
+            while (position < end)
+                position += segment.channel.transferTo(position, end - position, target);
+            transferred += end - segment.offset(start);
+        }
+        return transferred;
+    }
+
+    /**
+     * Reads the messages that a peer has not seen, in causal order.
+     *
+     * @param peerTime the peer's current clock
+     * @param consumer receives each wire message, without its length prefix
+     */
+    public synchronized void forEachMissing(C peerTime, Consumer<? super ByteBuffer> consumer) throws IOException
+    {
+        Segment segment = null;
+        for (long sequence : missing(peerTime))
+        {
+            segment = segmentOf(sequence, segment);
+            final int entry = (int)(sequence - segment.base);
+            final long offset = segment.offset(entry) + Integer.BYTES;
+            final ByteBuffer wire = ByteBuffer.allocate((int)(segment.offset(entry + 1) - offset));
+            readFully(segment.channel, wire, offset);
+            wire.flip();
+            consumer.accept(wire);
+        }
+    }
+
+    /**
+     * Deletes segments from the start of the log whose messages have all been seen by all the given peers, together
+     * with their index files. This should be called with the last known clocks of all peers which may need to catch
+     * up; the slowest peer determines what is retained.
+     *
+     * @param peerTimes the known clocks of all peers
+     * @return the number of segments deleted
+     */
+    public synchronized int retain(Iterable<? extends C> peerTimes) throws IOException
+    {
+        int deleted = 0;
+        for (Iterator<Segment> iterator = segments.iterator(); iterator.hasNext(); )
+        {
+            final Segment segment = iterator.next();
+            // Never delete the segment being appended to, and only delete from the start of the log
+            if (segment == segments.getLast() && segment.end() < segmentSize)
+                break;
+            boolean allSeen = true;
+            for (C peerTime : peerTimes)
+                allSeen &= segment.allSeen(peerTime);
+            if (!allSeen)
+                break;
+            iterator.remove();
+            segment.close();
+            Files.delete(segment.file);
+            Files.delete(segment.indexFile);
+            deleted++;
+        }
+        // Drop the deleted messages from the sender index
+        final long first = segments.isEmpty() ? nextSequence : segments.getFirst().base;
+        for (Iterator<List<Long>> iterator = senders.values().iterator(); iterator.hasNext(); )
+        {
+            final List<Long> sequences = iterator.next();
+            sequences.subList(0, firstAtLeast(sequences, first)).clear();
+            if (sequences.isEmpty())
+                iterator.remove();
+        }
+        return deleted;
+    }
+
+    /**
+     * @return the number of messages in the log
+     */
+    public synchronized int size()
+    {
+        return segments.stream().mapToInt(segment -> segment.times.size()).sum();
+    }
+
+    /**
+     * Closes the log, retaining its files.
+     */
+    @Override public synchronized void close() throws IOException
+    {
+        for (Segment segment : segments)
+            segment.close();
+        segments.clear();
+        senders.clear();
+    }
+
+    /**
+     * @return the sequence numbers of the messages the peer has not seen, in log order
+     */
+    private long[] missing(C peerTime)
+    {
+        final List<Long> missing = new ArrayList<>();
+        Segment segment = null;
+        for (List<Long> sequences : senders.values())
+        {
+            // Messages from a sender are in tick order, so if the peer has seen one, it has seen all before it
+            int low = 0, high = sequences.size();
+            while (low < high)
+            {
+                final int mid = (low + high) >>> 1;
+                segment = segmentOf(sequences.get(mid), segment);
+                if (seen.test(peerTime, segment.times.get((int)(sequences.get(mid) - segment.base))))
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            missing.addAll(sequences.subList(low, sequences.size()));
+        }
+        return missing.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    /**
+     * @param sequence a message sequence number
+     * @param hint     a segment to try first, or {@code null}
+     * @return the segment containing the message
+     */
+    private Segment segmentOf(long sequence, Segment hint)
+    {
+        if (hint != null && sequence >= hint.base && sequence < hint.base + hint.times.size())
+            return hint;
+        // Segments are few, and retained from the start, so a scan from the end is usually short
+        for (Iterator<Segment> iterator = segments.descendingIterator(); iterator.hasNext(); )
+        {
+            final Segment segment = iterator.next();
+            if (sequence >= segment.base)
+                return segment;
+        }
+        throw new IllegalStateException("Message is no longer in the log");
+    }
+
+    private static int firstAtLeast(List<Long> sequences, long first)
+    {
+        int low = 0, high = sequences.size();
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (sequences.get(mid) < first)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+    }
+
+    private static byte[] serialize(Object time) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(time);
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private C deserialize(byte[] time) throws IOException
+    {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(time)))
+        {
+            return (C)in.readObject();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException(e);
+        }
+    }
+}
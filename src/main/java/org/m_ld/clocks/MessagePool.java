@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+import java.util.ArrayDeque;
+
+/**
+ * A pool of re-usable messages, to avoid allocating a new message for each message sent or received. Acquiring and
+ * releasing messages is thread-safe, so messages can be acquired by a transport thread and released by a process.
+ *
+ * @param <C> the message clock type
+ * @param <D> the message data type
+ */
+public class MessagePool<C, D>
+{
+    private final ArrayDeque<PooledMessage<C, D>> free;
+    private final int maxFree;
+
+    /**
+     * @param maxFree the maximum number of released messages to keep for re-use
+     */
+    public MessagePool(int maxFree)
+    {
+        this.free = new ArrayDeque<>(maxFree);
+        this.maxFree = maxFree;
+    }
+
+    /**
+     * @param time the message time
+     * @param data the message data
+     * @return a message, re-used if one is available
+     */
+    public PooledMessage<C, D> acquire(C time, D data)
+    {
+        PooledMessage<C, D> message;
+        synchronized (this)
+        {
+            message = free.poll();
+        }
+        if (message == null)
+            message = new PooledMessage<>(this);
+        message.set(time, data);
+        return message;
+    }
+
+    /**
+     * @return the number of released messages available for re-use
+     */
+    public synchronized int available()
+    {
+        return free.size();
+    }
+
+    synchronized void release(PooledMessage<C, D> message)
+    {
+        if (free.size() < maxFree)
+            free.push(message);
+    }
+}
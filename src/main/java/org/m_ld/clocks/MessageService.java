@@ -5,8 +5,10 @@
 
 package org.m_ld.clocks;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Queue;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
@@ -19,6 +21,11 @@ import java.util.function.Consumer;
  */
 public abstract class MessageService<C extends CausalClock<C>>
 {
+    /**
+     * Adapts a consumer to the target variants of the methods
+     */
+    private static final BiConsumer<Consumer<Object>, Object> CONSUMER = Consumer::accept;
+
     /**
      * Call before sending this clock's state attached to a message.
      * Returns an immutable snapshot of time suitable for attachment to a message.
@@ -31,6 +38,7 @@ public abstract class MessageService<C extends CausalClock<C>>
 
     /**
      * Call to process newly received message data from the wire.
+     * Messages which have already been delivered are ignored, so that a transport may deliver at least once.
      *
      * @param message the message from the wire
      * @param buffer  a buffer for out-of-order messages
@@ -44,11 +52,27 @@ public abstract class MessageService<C extends CausalClock<C>>
     public <D, M extends Message<C, D>> boolean receive(
         M message, Queue<M> buffer, Consumer<? super D> process)
     {
-        return receiveMessage(message, buffer, m -> process.accept(m.data()));
+        return doReceive(message, buffer, process, CONSUMER, true);
+    }
+
+    /**
+     * Variant of {@link #receive(Message, Queue, Consumer)} taking a target for the message data and a
+     * non-capturing consumer, such as a static method reference. This allows the caller to receive messages without
+     * allocating a new consumer for each message.
+     *
+     * @param target  the first argument to the process
+     * @param process the local message data consumer, which will receive the target and message data in order
+     * @see #receive(Message, Queue, Consumer)
+     */
+    public <T, D, M extends Message<C, D>> boolean receive(
+        M message, Queue<M> buffer, T target, BiConsumer<? super T, ? super D> process)
+    {
+        return doReceive(message, buffer, target, process, true);
     }
 
     /**
      * Call to process a newly received message from the wire.
+     * Messages which have already been delivered are ignored, so that a transport may deliver at least once.
      * <p>
      * This variant supports message recipients who may be journaling messages for themselves.
      *
@@ -64,17 +88,21 @@ public abstract class MessageService<C extends CausalClock<C>>
     public <M extends Message<C, ?>> boolean receiveMessage(
         M message, Queue<M> buffer, Consumer<? super M> process)
     {
-        if (readyFor(message.time()))
-        {
-            // increment receiving process’s state value in its local vector
-            event();
-            deliver(message, buffer, process);
-            return true;
-        }
-        else
-        {
-            return buffer.offer(message);
-        }
+        return doReceive(message, buffer, process, CONSUMER, false);
+    }
+
+    /**
+     * Variant of {@link #receiveMessage(Message, Queue, Consumer)} taking a target for the message and a
+     * non-capturing consumer, such as a static method reference.
+     *
+     * @param target  the first argument to the process
+     * @param process the local message consumer, which will receive the target and messages in order
+     * @see #receiveMessage(Message, Queue, Consumer)
+     */
+    public <T, M extends Message<C, ?>> boolean receiveMessage(
+        M message, Queue<M> buffer, T target, BiConsumer<? super T, ? super M> process)
+    {
+        return doReceive(message, buffer, target, process, false);
     }
 
     /**
@@ -97,15 +125,26 @@ public abstract class MessageService<C extends CausalClock<C>>
     public <M extends Message<C, ?>> void deliver(
         M message, Iterable<M> buffer, Consumer<? super M> process)
     {
-        join(message.time());
-
-        process.accept(message);
+        doDeliver(message, buffer, process, CONSUMER, false);
+    }
 
-        reconsider(buffer, process);
+    /**
+     * Variant of {@link #deliver(Message, Iterable, Consumer)} taking a target for the message and a non-capturing
+     * consumer, such as a static method reference.
+     *
+     * @param target  the first argument to the process
+     * @param process the local message consumer, which will receive the target and messages in order
+     * @see #deliver(Message, Iterable, Consumer)
+     */
+    public <T, M extends Message<C, ?>> void deliver(
+        M message, Iterable<M> buffer, T target, BiConsumer<? super T, ? super M> process)
+    {
+        doDeliver(message, buffer, target, process, false);
     }
 
     /**
      * Reconsiders the given buffer of messages, assuming that some change has been made to the local clock.
+     * Buffered duplicates of messages which have since been delivered are removed.
      *
      * @param buffer  a buffer of messages that might be caused by the delivered message.
      *                Must implement {@link Iterator#remove()}.
@@ -117,16 +156,80 @@ public abstract class MessageService<C extends CausalClock<C>>
      */
     public <M extends Message<C, ?>> void reconsider(Iterable<M> buffer, Consumer<? super M> process)
     {
+        doReconsider(buffer, process, CONSUMER, false);
+    }
+
+    /**
+     * Variant of {@link #reconsider(Iterable, Consumer)} taking a target for the message and a non-capturing
+     * consumer, such as a static method reference.
+     *
+     * @param target  the first argument to the process
+     * @param process the local message consumer, which will receive the target and messages in order
+     * @see #reconsider(Iterable, Consumer)
+     */
+    public <T, M extends Message<C, ?>> void reconsider(
+        Iterable<M> buffer, T target, BiConsumer<? super T, ? super M> process)
+    {
+        doReconsider(buffer, target, process, false);
+    }
+
+    /**
+     * The implementations of receive, deliver and reconsider are shared by the consumer and target variants. The
+     * process is given the target and either the message or, if {@code unwrap} is set, the message data.
+     */
+    private <M extends Message<C, ?>> boolean doReceive(
+        M message, Queue<M> buffer, Object target, BiConsumer<?, ?> process, boolean unwrap)
+    {
+        if (alreadyDelivered(message.time()))
+        {
+            // A duplicate from the transport, ignore
+            return true;
+        }
+        else if (readyFor(message.time()))
+        {
+            // increment receiving process’s state value in its local vector
+            event();
+            doDeliver(message, buffer, target, process, unwrap);
+            return true;
+        }
+        else
+        {
+            return buffer.offer(message);
+        }
+    }
+
+    @SuppressWarnings("unchecked") private <M extends Message<C, ?>> void doDeliver(
+        M message, Iterable<M> buffer, Object target, BiConsumer<?, ?> process, boolean unwrap)
+    {
+        join(message.time());
+
+        ((BiConsumer<Object, Object>)process).accept(target, unwrap ? message.data() : message);
+
+        doReconsider(buffer, target, process, unwrap);
+    }
+
+    private <M extends Message<C, ?>> void doReconsider(
+        Iterable<M> buffer, Object target, BiConsumer<?, ?> process, boolean unwrap)
+    {
+        // Avoid creating an iterator in the common case of an empty buffer
+        if (buffer instanceof Collection && ((Collection<?>)buffer).isEmpty())
+            return;
+
         for (Iterator<M> bufferIter = buffer.iterator(); bufferIter.hasNext(); )
         {
             final M next = bufferIter.next();
-            if (readyFor(next.time()))
+            if (alreadyDelivered(next.time()))
+            {
+                // A duplicate of a message that has since been delivered
+                bufferIter.remove();
+            }
+            else if (readyFor(next.time()))
             {
                 bufferIter.remove();
                 // increment receiving process’s state value in its local vector
                 event();
                 // Recurse to start the iteration again on the modified buffer
-                deliver(next, buffer, process);
+                doDeliver(next, buffer, target, process, unwrap);
                 break;
             }
         }
@@ -156,13 +259,27 @@ public abstract class MessageService<C extends CausalClock<C>>
      */
     public abstract C fork();
 
+    /**
+     * Determines whether a message with the given time has already been delivered, using only the current clock. This
+     * relies on messages from each sender being delivered in the order they were sent, as required for causal
+     * delivery in any case.
+     *
+     * @param senderTime an incoming message's time
+     * @return <code>true</code> if our current clock state has already seen the given time
+     */
+    protected synchronized boolean alreadyDelivered(C senderTime)
+    {
+        return peek().hasSeen(senderTime);
+    }
+
     /**
      * The basic determinant of whether we can deliver a message with the given time.
+     * May be overridden to provide a faster determination, which must be equivalent.
      *
      * @param senderTime an incoming message's time
      * @return <code>true</code> if our current clock state has all required history for the given time
      */
-    private synchronized boolean readyFor(C senderTime)
+    protected synchronized boolean readyFor(C senderTime)
     {
         // do the sender and receiver agree on the state of all other processes?
         // If the sender has a higher state value for any of these others, the receiver is missing
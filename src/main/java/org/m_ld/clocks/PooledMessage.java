@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+/**
+ * A re-usable message, obtained from a {@link MessagePool}. When the message is no longer needed, it must be
+ * {@link #release() released} exactly once, by its last user, after which it must not be used. A pooled message which
+ * is not released is simply garbage collected.
+ *
+ * @param <C> the message clock type
+ * @param <D> the message data type
+ */
+public final class PooledMessage<C, D> implements Message<C, D>
+{
+    private final MessagePool<C, D> pool;
+    private C time;
+    private D data;
+    private boolean released = true;
+
+    PooledMessage(MessagePool<C, D> pool)
+    {
+        this.pool = pool;
+    }
+
+    @Override public C time()
+    {
+        checkNotReleased();
+        return time;
+    }
+
+    @Override public D data()
+    {
+        checkNotReleased();
+        return data;
+    }
+
+    /**
+     * Returns this message to its pool.
+     *
+     * @throws IllegalStateException if the message has already been released
+     */
+    public void release()
+    {
+        checkNotReleased();
+        set(null, null);
+        released = true;
+        pool.release(this);
+    }
+
+    void set(C time, D data)
+    {
+        this.time = time;
+        this.data = data;
+        this.released = false;
+    }
+
+    private void checkNotReleased()
+    {
+        if (released)
+            throw new IllegalStateException("Message has been released");
+    }
+
+    @Override public String toString()
+    {
+        return released ? "released" : data + " @ " + time;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+import java.io.Closeable;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A staged pipeline for receiving messages from the wire, around a {@link MessageService}.
+ * <p>
+ * Wire messages are published into a pre-allocated ring buffer, after the fashion of the
+ * <a href="https://lmax-exchange.github.io/disruptor/">LMAX Disruptor</a>. A number of decoder threads decode the
+ * wire messages in parallel, each taking every {@code n}th message. A single sequencer thread then takes the decoded
+ * messages in the order they were published, and owns the out-of-order message buffer and all calls to
+ * {@link MessageService#receiveMessage}. The message data consumer is called on the sequencer thread, in causal order.
+ * <p>
+ * The message service is only accessed by the sequencer thread. If messages are also sent from other threads, the
+ * message service must be thread-safe, e.g. {@link org.m_ld.clocks.tree.TreeClockMessageService}.
+ *
+ * @param <C> the message clock type
+ * @param <W> the wire message type
+ * @param <D> the message data type
+ */
+public class ReceivePipeline<C extends CausalClock<C>, W, D> implements Closeable
+{
+    private static final long NOT_SET = -1L;
+    private static final int MAX_RING_SIZE = 1 << 30;
+    private final MessageService<C> messageService;
+    private final Function<? super W, ? extends Message<C, D>> decoder;
+    private final Consumer<? super D> process;
+    private final Consumer<? super RuntimeException> errorHandler;
+    private final int mask;
+    private final Object[] wires;
+    private final Object[] messages;
+    private final AtomicLongArray published, decoded;
+    private final AtomicLong claimed = new AtomicLong();
+    private final LinkedList<Message<C, D>> buffer = new LinkedList<>();
+    private final Thread[] threads;
+    private volatile long consumed = 0L;
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts a pipeline.
+     *
+     * @param messageService the message service to receive messages
+     * @param decoder        decodes wire messages, on a decoder thread
+     * @param process        the local message data consumer, which will receive message data in order on the
+     *                       sequencer thread
+     * @param errorHandler   receives any exception thrown by the decoder or by the process. If a wire message cannot
+     *                       be decoded, it is dropped. If the process fails, any buffered messages it would have
+     *                       caused will be re-considered after the next delivery.
+     * @param ringSize       the number of wire messages which can be in the pipeline; rounded up to a power of two,
+     *                       at most {@code 2^30}
+     * @param decoders       the number of decoder threads
+     */
+    public ReceivePipeline(MessageService<C> messageService,
+                           Function<? super W, ? extends Message<C, D>> decoder,
+                           Consumer<? super D> process,
+                           Consumer<? super RuntimeException> errorHandler,
+                           int ringSize,
+                           int decoders)
+    {
+        if (ringSize < 1 || decoders < 1)
+            throw new IllegalArgumentException("Pipeline must have at least one slot and one decoder");
+        if (ringSize > MAX_RING_SIZE)
+            throw new IllegalArgumentException("Pipeline cannot have more than 2^30 slots");
+
+        this.messageService = messageService;
+        this.decoder = decoder;
+        this.process = process;
+        this.errorHandler = errorHandler;
+
+        int size = 1;
+        while (size < ringSize)
+            size <<= 1;
+        this.mask = size - 1;
+        this.wires = new Object[size];
+        this.messages = new Object[size];
+        this.published = new AtomicLongArray(size);
+        this.decoded = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            published.set(i, NOT_SET);
+            decoded.set(i, NOT_SET);
+        }
+
+        this.threads = new Thread[decoders + 1];
+        for (int d = 0; d < decoders; d++)
+        {
+            final int first = d;
+            threads[d] = new Thread(() -> decode(first, decoders), "decoder-" + d);
+        }
+        threads[decoders] = new Thread(this::sequence, "sequencer");
+        for (Thread thread : threads)
+        {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Publishes a wire message into the pipeline. May be called from any thread. Waits if the pipeline is full.
+     *
+     * @param wire a message from the wire
+     * @throws IllegalStateException if the pipeline has been closed
+     */
+    public void receive(W wire)
+    {
+        final long sequence = claimed.getAndIncrement();
+        for (int spins = 0; sequence - consumed > mask; spins++)
+            if (!idle(spins))
+                throw new IllegalStateException("Pipeline closed");
+        final int slot = (int)sequence & mask;
+        wires[slot] = wire;
+        published.set(slot, sequence);
+    }
+
+    /**
+     * Stops the pipeline threads. Messages still in the pipeline are discarded.
+     */
+    @Override public void close()
+    {
+        running = false;
+        for (Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void decode(long first, int stride)
+    {
+        for (long sequence = first; running; sequence += stride)
+        {
+            final int slot = (int)sequence & mask;
+            for (int spins = 0; published.get(slot) != sequence; spins++)
+                if (!idle(spins))
+                    return;
+            @SuppressWarnings("unchecked") final W wire = (W)wires[slot];
+            wires[slot] = null;
+            try
+            {
+                messages[slot] = decoder.apply(wire);
+            }
+            catch (RuntimeException e)
+            {
+                messages[slot] = null;
+                errorHandler.accept(e);
+            }
+            decoded.set(slot, sequence);
+        }
+    }
+
+    private void sequence()
+    {
+        for (long sequence = 0; running; sequence++)
+        {
+            final int slot = (int)sequence & mask;
+            for (int spins = 0; decoded.get(slot) != sequence; spins++)
+                if (!idle(spins))
+                    return;
+            @SuppressWarnings("unchecked") final Message<C, D> message = (Message<C, D>)messages[slot];
+            messages[slot] = null;
+            consumed = sequence + 1;
+            if (message != null)
+            {
+                try
+                {
+                    if (!messageService.receive(message, buffer, process))
+                        throw new IllegalStateException("Buffer overload");
+                }
+                catch (RuntimeException e)
+                {
+                    errorHandler.accept(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits a little, spinning at first, then yielding, then parking.
+     *
+     * @return {@code false} if the pipeline has been closed
+     */
+    private boolean idle(int spins)
+    {
+        if (spins > 200)
+            LockSupport.parkNanos(50_000L);
+        else if (spins > 100)
+            Thread.yield();
+        return running;
+    }
+}
@@ -0,0 +1,614 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.tree;
+
+import org.m_ld.clocks.CausalClock;
+import org.m_ld.clocks.CausalOrder;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A clock with the semantics of a {@link TreeClock}, which can be laid out either as a tree of nodes, or as a dense
+ * vector of node ticks over a separate tree shape.
+ * <p>
+ * The {@link Layout#TREE tree} layout suits groups whose shape changes often, due to forking, and whose ticks are
+ * sparse. The {@link Layout#VECTOR vector} layout suits small or stable groups with many ticks: when two clocks have
+ * the same shape, as is usual once every process has heard from every other, comparisons are tight loops over arrays,
+ * and the encoding is a fixed-width array of ticks. Clocks in different layouts can be freely compared and updated.
+ * <p>
+ * Every clock carries its layout, and an epoch which is incremented whenever a process chooses to switch layout. When
+ * a clock is {@link #update updated}, it adopts the layout of the other clock if that has a later epoch, so that a
+ * switch propagates with the messages of the group.
+ * <p>
+ * This implementation is immutable and so thread-safe.
+ *
+ * @see AdaptiveClockMessageService
+ */
+public final class AdaptiveClock implements CausalClock<AdaptiveClock>, Serializable
+{
+    private static final long serialVersionUID = 1L;
+    private static final int ID = 1, FORKED = 2, TICKED = 4;
+    /**
+     * A clock to be used as a starting point, in the tree layout
+     */
+    public static final AdaptiveClock GENESIS = clock(TreeClock.GENESIS);
+
+    public enum Layout
+    {
+        TREE, VECTOR
+    }
+
+    private final Layout layout;
+    private final long epoch;
+    /**
+     * Exactly one of the tree and the dense layout is non-null, according to the layout
+     */
+    private final TreeClock tree;
+    private final Dense dense;
+    private transient TreeClock treeCache;
+
+    /**
+     * The shape of a tree, as the index of the right branch of each node in pre-order, or {@code -1} for a leaf. The
+     * left branch of a forked node always immediately follows it.
+     */
+    private static final class Shape implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        final int[] right, parent;
+        private transient int hashCode;
+
+        Shape(int[] right, int[] parent)
+        {
+            this.right = right;
+            this.parent = parent;
+        }
+
+        int size()
+        {
+            return right.length;
+        }
+
+        boolean isLeaf(int node)
+        {
+            return right[node] < 0;
+        }
+
+        @Override public boolean equals(Object o)
+        {
+            return o == this || o instanceof Shape &&
+                hashCode() == o.hashCode() && Arrays.equals(right, ((Shape)o).right);
+        }
+
+        @Override public int hashCode()
+        {
+            // Immutable, so cache the hash code; benign race
+            if (hashCode == 0)
+                hashCode = Arrays.hashCode(right);
+            return hashCode;
+        }
+    }
+
+    /**
+     * The dense layout: the process identity flag and ticks of each node of the shape, in pre-order
+     */
+    private static final class Dense implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        final Shape shape;
+        final boolean[] isId;
+        final long[] ticks;
+        /**
+         * Nodes in or under a process identity, and nodes which count towards the ticks for the process identity
+         */
+        private transient boolean[] own, region;
+
+        Dense(Shape shape, boolean[] isId, long[] ticks)
+        {
+            this.shape = shape;
+            this.isId = isId;
+            this.ticks = ticks;
+        }
+
+        /**
+         * @return a dense clock with the same shape and identity, and the given ticks
+         */
+        Dense with(long[] ticks)
+        {
+            final Dense dense = new Dense(shape, isId, ticks);
+            dense.own = own;
+            dense.region = region;
+            return dense;
+        }
+
+        static Dense of(TreeClock tree)
+        {
+            final int size = size(tree);
+            final int[] right = new int[size], parent = new int[size];
+            final boolean[] isId = new boolean[size];
+            final long[] ticks = new long[size];
+            fill(tree, 0, -1, right, parent, isId, ticks);
+            return new Dense(new Shape(right, parent), isId, ticks);
+        }
+
+        private static int size(TreeClock node)
+        {
+            final TreeClock.Fork fork = node.branches();
+            return fork == null ? 1 : 1 + size(fork.left) + size(fork.right);
+        }
+
+        private static int fill(TreeClock node, int index, int parentIndex,
+                                int[] right, int[] parent, boolean[] isId, long[] ticks)
+        {
+            parent[index] = parentIndex;
+            isId[index] = node.isId();
+            ticks[index] = node.nodeTicks();
+            final TreeClock.Fork fork = node.branches();
+            if (fork == null)
+            {
+                right[index] = -1;
+                return index + 1;
+            }
+            right[index] = fill(fork.left, index + 1, index, right, parent, isId, ticks);
+            return fill(fork.right, right[index], index, right, parent, isId, ticks);
+        }
+
+        TreeClock tree(int node)
+        {
+            return shape.isLeaf(node) ? TreeClock.node(isId[node], ticks[node], null, null) :
+                TreeClock.node(isId[node], ticks[node], tree(node + 1), tree(shape.right[node]));
+        }
+
+        boolean[] own()
+        {
+            if (own == null)
+            {
+                final boolean[] own = new boolean[shape.size()];
+                for (int node = 0; node < own.length; node++)
+                    own[node] = isId[node] || shape.parent[node] >= 0 && own[shape.parent[node]];
+                this.own = own;
+            }
+            return own;
+        }
+
+        boolean[] region()
+        {
+            if (region == null)
+            {
+                final boolean[] own = own(), region = new boolean[shape.size()];
+                // Children follow their parents, so visit in reverse
+                for (int node = region.length - 1; node >= 0; node--)
+                    region[node] = own[node] || !shape.isLeaf(node) &&
+                        (region[node + 1] || region[shape.right[node]]);
+                this.region = region;
+            }
+            return region;
+        }
+
+        boolean anyLt(Dense other)
+        {
+            for (int node = 0; node < ticks.length; node++)
+                if (shape.isLeaf(node) && !isId[node] && !other.isId[node] && ticks[node] < other.ticks[node])
+                    return true;
+            return false;
+        }
+
+        boolean hasSeen(Dense time)
+        {
+            final boolean[] region = time.region();
+            long difference = 0L;
+            for (int node = 0; node < ticks.length; node++)
+                if (region[node])
+                    difference += ticks[node] - time.ticks[node];
+            return difference >= 0;
+        }
+
+        CausalOrder compare(Dense other)
+        {
+            // The ticks for each leaf are the sum of the ticks on the path to it
+            final long[] sums = new long[ticks.length], otherSums = new long[ticks.length];
+            boolean less = false, greater = false;
+            for (int node = 0; node < ticks.length && !(less && greater); node++)
+            {
+                final int parent = shape.parent[node];
+                sums[node] = ticks[node] + (parent < 0 ? 0L : sums[parent]);
+                otherSums[node] = other.ticks[node] + (parent < 0 ? 0L : otherSums[parent]);
+                if (shape.isLeaf(node))
+                {
+                    less |= sums[node] < otherSums[node];
+                    greater |= sums[node] > otherSums[node];
+                }
+            }
+            return CausalOrder.of(less, greater);
+        }
+
+        Dense tick()
+        {
+            for (int node = 0; node < ticks.length; node++)
+            {
+                if (isId[node])
+                {
+                    final long[] ticked = ticks.clone();
+                    ticked[node]++;
+                    return with(ticked);
+                }
+            }
+            return null;
+        }
+
+        Dense update(Dense other)
+        {
+            final boolean[] own = own();
+            long[] updated = null;
+            for (int node = 0; node < ticks.length; node++)
+            {
+                if (own[node])
+                {
+                    if (isId[node] && other.isId[node] && other.ticks[node] > ticks[node])
+                        throw new IllegalArgumentException("Trying to update from overlapping clock");
+                }
+                else if (other.ticks[node] > ticks[node])
+                {
+                    if (updated == null)
+                        updated = ticks.clone();
+                    updated[node] = other.ticks[node];
+                }
+            }
+            return updated == null ? this : with(updated);
+        }
+
+        int encodedSize(Layout layout)
+        {
+            int size = 0;
+            if (layout == Layout.TREE)
+            {
+                for (long nodeTicks : ticks)
+                    size += 1 + (nodeTicks > 0 ? varintSize(nodeTicks) : 0);
+            }
+            else
+            {
+                int ticked = 0;
+                for (long nodeTicks : ticks)
+                    if (nodeTicks > 0)
+                        ticked++;
+                size = varintSize(ticks.length) + (ticks.length + 1) / 2 + 1 + ticked * width();
+            }
+            return size;
+        }
+
+        /**
+         * @return the flags describing a node in either encoding
+         */
+        private int header(int node)
+        {
+            return (isId[node] ? ID : 0) | (shape.isLeaf(node) ? 0 : FORKED) | (ticks[node] > 0 ? TICKED : 0);
+        }
+
+        /**
+         * @return the number of bytes required for the largest node ticks
+         */
+        int width()
+        {
+            long max = 0L;
+            for (long nodeTicks : ticks)
+                max = Math.max(max, nodeTicks);
+            return (Long.SIZE - Long.numberOfLeadingZeros(max) + 7) / 8;
+        }
+
+        void encode(Layout layout, ByteBuffer buffer)
+        {
+            if (layout == Layout.TREE)
+            {
+                for (int node = 0; node < ticks.length; node++)
+                {
+                    buffer.put((byte)header(node));
+                    if (ticks[node] > 0)
+                        putVarint(buffer, ticks[node]);
+                }
+            }
+            else
+            {
+                putVarint(buffer, ticks.length);
+                for (int node = 0; node < ticks.length; node += 2)
+                    buffer.put((byte)(header(node) | (node + 1 < ticks.length ? header(node + 1) << 4 : 0)));
+                final int width = width();
+                buffer.put((byte)width);
+                for (long nodeTicks : ticks)
+                    for (int b = width - 1; nodeTicks > 0 && b >= 0; b--)
+                        buffer.put((byte)(nodeTicks >>> (b * 8)));
+            }
+        }
+
+        static Dense decodeVector(ByteBuffer buffer)
+        {
+            final int size = (int)getVarint(buffer);
+            final int[] headers = new int[size];
+            for (int node = 0; node < size; node += 2)
+            {
+                final int bits = buffer.get();
+                headers[node] = bits & 0xF;
+                if (node + 1 < size)
+                    headers[node + 1] = bits >> 4 & 0xF;
+            }
+            final int width = buffer.get();
+            final boolean[] isId = new boolean[size], forked = new boolean[size];
+            final long[] ticks = new long[size];
+            for (int node = 0; node < size; node++)
+            {
+                isId[node] = (headers[node] & ID) != 0;
+                forked[node] = (headers[node] & FORKED) != 0;
+                for (int b = 0; (headers[node] & TICKED) != 0 && b < width; b++)
+                    ticks[node] = ticks[node] << 8 | (buffer.get() & 0xFF);
+            }
+            final int[] right = new int[size], parent = new int[size];
+            shape(0, -1, forked, right, parent);
+            return new Dense(new Shape(right, parent), isId, ticks);
+        }
+
+        private static int shape(int index, int parentIndex, boolean[] forked, int[] right, int[] parent)
+        {
+            parent[index] = parentIndex;
+            if (!forked[index])
+            {
+                right[index] = -1;
+                return index + 1;
+            }
+            right[index] = shape(index + 1, index, forked, right, parent);
+            return shape(right[index], index, forked, right, parent);
+        }
+    }
+
+    /**
+     * @param tree a tree clock
+     * @return an adaptive clock with the same state as the given tree clock, in the tree layout
+     */
+    public static AdaptiveClock clock(TreeClock tree)
+    {
+        return new AdaptiveClock(Layout.TREE, 0L, tree, null);
+    }
+
+    private AdaptiveClock(Layout layout, long epoch, TreeClock tree, Dense dense)
+    {
+        assert (tree == null) == (layout == Layout.VECTOR) && (dense == null) == (layout == Layout.TREE);
+
+        this.layout = layout;
+        this.epoch = epoch;
+        this.tree = tree;
+        this.dense = dense;
+    }
+
+    /**
+     * @return the layout of this clock
+     */
+    public Layout layout()
+    {
+        return layout;
+    }
+
+    /**
+     * @return the number of times that the layout of the group has been switched, as seen by this clock
+     */
+    public long epoch()
+    {
+        return epoch;
+    }
+
+    /**
+     * @return a tree clock with the same state as this clock
+     */
+    public TreeClock tree()
+    {
+        if (tree != null)
+            return tree;
+        else if (treeCache == null)
+            treeCache = dense.tree(0); // Benign race
+        return treeCache;
+    }
+
+    /**
+     * @param layout the layout to switch to
+     * @param epoch  the epoch of the switch
+     * @return a clock with the same state as this clock, in the given layout
+     */
+    public AdaptiveClock switchTo(Layout layout, long epoch)
+    {
+        return layout == Layout.TREE ? new AdaptiveClock(layout, epoch, tree(), null) :
+            new AdaptiveClock(layout, epoch, null, dense());
+    }
+
+    /**
+     * @return the number of leaves of the tree, which is the number of processes that have been forked in the group,
+     * or at least those which this clock knows about
+     */
+    public int groupSize()
+    {
+        final Dense dense = dense();
+        int leaves = 0;
+        for (int node = 0; node < dense.shape.size(); node++)
+            if (dense.shape.isLeaf(node))
+                leaves++;
+        return leaves;
+    }
+
+    /**
+     * @return a clock with one additional tick for this clock's process identity, or {@code null} if this clock has
+     * no process identity
+     * @see TreeClock#tick()
+     */
+    public AdaptiveClock tick()
+    {
+        if (layout == Layout.TREE)
+        {
+            final TreeClock ticked = tree.tick();
+            return ticked == null ? null : new AdaptiveClock(layout, epoch, ticked, null);
+        }
+        else
+        {
+            final Dense ticked = dense.tick();
+            return ticked == null ? null : new AdaptiveClock(layout, epoch, null, ticked);
+        }
+    }
+
+    /**
+     * Updates this clock with another clock's ticks. If the other clock has a later epoch, the result has its layout;
+     * a tie between different layouts in the same epoch goes to the vector layout, so that all processes agree.
+     *
+     * @see TreeClock#update(TreeClock)
+     */
+    public AdaptiveClock update(AdaptiveClock other)
+    {
+        final boolean adopt = other.epoch > epoch || other.epoch == epoch && other.layout.compareTo(layout) > 0;
+        final Layout layout = adopt ? other.layout : this.layout;
+        final long epoch = adopt ? other.epoch : this.epoch;
+        if (layout == Layout.VECTOR && sameShape(other))
+        {
+            final Dense updated = dense.update(other.dense);
+            return updated == dense && !adopt ? this : new AdaptiveClock(layout, epoch, null, updated);
+        }
+        else
+        {
+            return of(tree().update(other.tree()), layout, epoch);
+        }
+    }
+
+    /**
+     * @param tree a tree clock
+     * @return a clock with the given state, and this clock's layout and epoch
+     */
+    AdaptiveClock with(TreeClock tree)
+    {
+        return of(tree, layout, epoch);
+    }
+
+    private static AdaptiveClock of(TreeClock tree, Layout layout, long epoch)
+    {
+        return layout == Layout.TREE ? new AdaptiveClock(layout, epoch, tree, null) :
+            new AdaptiveClock(layout, epoch, null, Dense.of(tree));
+    }
+
+    @Override public boolean anyLt(AdaptiveClock other)
+    {
+        return sameShape(other) ? dense.anyLt(other.dense) : tree().anyLt(other.tree());
+    }
+
+    @Override public boolean hasSeen(AdaptiveClock time)
+    {
+        return sameShape(time) ? dense.hasSeen(time.dense) : tree().hasSeen(time.tree());
+    }
+
+    @Override public CausalOrder compare(AdaptiveClock other)
+    {
+        return sameShape(other) ? dense.compare(other.dense) : tree().compare(other.tree());
+    }
+
+    /**
+     * @return the number of bytes required to {@link #encode} this clock
+     */
+    public int encodedSize()
+    {
+        return encodedSize(layout);
+    }
+
+    /**
+     * @param layout a layout
+     * @return the number of bytes that would be required to encode this clock in the given layout
+     */
+    public int encodedSize(Layout layout)
+    {
+        return 1 + varintSize(epoch) + dense().encodedSize(layout);
+    }
+
+    /**
+     * Writes this clock in a compact binary form, according to its layout. In the tree layout, each node has a header
+     * byte and variable-length ticks, if it has any. In the vector layout, the node headers are packed two to a byte,
+     * followed by fixed-width ticks for every node which has any.
+     *
+     * @param buffer the buffer to write to, which must have at least {@link #encodedSize()} bytes remaining
+     */
+    public void encode(ByteBuffer buffer)
+    {
+        buffer.put((byte)layout.ordinal());
+        putVarint(buffer, epoch);
+        dense().encode(layout, buffer);
+    }
+
+    /**
+     * @param buffer a buffer containing an encoded clock
+     * @return the decoded clock
+     * @see #encode(ByteBuffer)
+     */
+    public static AdaptiveClock decode(ByteBuffer buffer)
+    {
+        final Layout layout = Layout.values()[buffer.get()];
+        final long epoch = getVarint(buffer);
+        return layout == Layout.TREE ? new AdaptiveClock(layout, epoch, decodeTree(buffer), null) :
+            new AdaptiveClock(layout, epoch, null, Dense.decodeVector(buffer));
+    }
+
+    @Override public boolean equals(Object o)
+    {
+        return o == this || o instanceof AdaptiveClock && tree().equals(((AdaptiveClock)o).tree());
+    }
+
+    @Override public int hashCode()
+    {
+        return tree().hashCode();
+    }
+
+    @Override public String toString()
+    {
+        return "AdaptiveClock " + layout + "@" + epoch + " " + tree().briefString();
+    }
+
+    private Dense dense()
+    {
+        return dense != null ? dense : Dense.of(tree);
+    }
+
+    private boolean sameShape(AdaptiveClock other)
+    {
+        return dense != null && other.dense != null &&
+            (dense.shape == other.dense.shape || dense.shape.equals(other.dense.shape));
+    }
+
+    private static TreeClock decodeTree(ByteBuffer buffer)
+    {
+        final int header = buffer.get();
+        final long ticks = (header & TICKED) != 0 ? getVarint(buffer) : 0L;
+        if ((header & FORKED) == 0)
+            return TreeClock.node((header & ID) != 0, ticks, null, null);
+        final TreeClock left = decodeTree(buffer);
+        return TreeClock.node((header & ID) != 0, ticks, left, decodeTree(buffer));
+    }
+
+    private static int varintSize(long value)
+    {
+        return Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(value) + 6) / 7);
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    private static long getVarint(ByteBuffer buffer)
+    {
+        long value = 0L;
+        for (int shift = 0; ; shift += 7)
+        {
+            final byte b = buffer.get();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.tree;
+
+import org.m_ld.clocks.MessageService;
+
+/**
+ * A {@link MessageService} using an {@link AdaptiveClock}, which periodically chooses the clock layout with the
+ * smallest encoding.
+ * <p>
+ * Every given number of local events, the service evaluates the group: if more than a given number of forks have
+ * occurred since the last evaluation, it prefers the tree layout, since every fork changes the shape of the vector
+ * layout. Otherwise it prefers whichever layout has the smaller encoding of the current clock, by a margin, so that
+ * the layout does not flip back and forth. A switch is made by starting a new epoch, which the other processes adopt
+ * when they receive a message.
+ */
+public class AdaptiveClockMessageService extends MessageService<AdaptiveClock>
+{
+    /**
+     * The default number of local events between evaluations of the layout
+     */
+    public static final int DEFAULT_EVALUATION_INTERVAL = 256;
+    /**
+     * The fraction by which one layout's encoding must be smaller, for the service to switch to it
+     */
+    private static final double SWITCH_MARGIN = 0.125;
+    private final int evaluationInterval, maxForkChurn;
+    private AdaptiveClock localTime;
+    private int events = 0, forks = 0;
+
+    public AdaptiveClockMessageService(AdaptiveClock localTime)
+    {
+        this(localTime, DEFAULT_EVALUATION_INTERVAL, 0);
+    }
+
+    /**
+     * @param localTime          the initial clock
+     * @param evaluationInterval the number of local events between evaluations of the layout
+     * @param maxForkChurn       the maximum number of forks between evaluations, for the vector layout to be used
+     */
+    public AdaptiveClockMessageService(AdaptiveClock localTime, int evaluationInterval, int maxForkChurn)
+    {
+        if (evaluationInterval < 1)
+            throw new IllegalArgumentException("Evaluation interval must be at least one");
+
+        this.localTime = localTime;
+        this.evaluationInterval = evaluationInterval;
+        this.maxForkChurn = maxForkChurn;
+    }
+
+    @Override
+    public AdaptiveClock peek()
+    {
+        return localTime;
+    }
+
+    @Override
+    public synchronized void event()
+    {
+        localTime = localTime.tick();
+        if (++events >= evaluationInterval)
+            evaluate();
+    }
+
+    @Override
+    public synchronized void join(AdaptiveClock metadata)
+    {
+        localTime = localTime.update(metadata);
+    }
+
+    @Override
+    public synchronized AdaptiveClock fork()
+    {
+        forks++;
+        final TreeClock.Fork fork = localTime.tree().fork();
+        final AdaptiveClock forked = localTime.with(fork.right);
+        localTime = localTime.with(fork.left);
+        return forked;
+    }
+
+    /**
+     * @return the number of forks made by this process since the last evaluation of the layout
+     */
+    public synchronized int forkChurn()
+    {
+        return forks;
+    }
+
+    private void evaluate()
+    {
+        final AdaptiveClock.Layout current = localTime.layout(), preferred;
+        if (forks > maxForkChurn)
+        {
+            preferred = AdaptiveClock.Layout.TREE;
+        }
+        else
+        {
+            final AdaptiveClock.Layout other = current == AdaptiveClock.Layout.TREE ?
+                AdaptiveClock.Layout.VECTOR : AdaptiveClock.Layout.TREE;
+            preferred = localTime.encodedSize(other) < localTime.encodedSize(current) * (1 - SWITCH_MARGIN) ?
+                other : current;
+        }
+        if (preferred != current)
+            localTime = localTime.switchTo(preferred, localTime.epoch() + 1);
+        events = 0;
+        forks = 0;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.tree;
+
+import static org.m_ld.clocks.tree.TreeClock.NONE;
+import static org.m_ld.clocks.tree.TreeClock.zeroIfNone;
+
+/**
+ * A mutable equivalent of a {@link TreeClock}, which is ticked and updated in place. The operations have the same
+ * semantics as their {@link TreeClock} namesakes.
+ * <p>
+ * An immutable snapshot of each node is kept until the node, or any node below it, is changed. So taking a
+ * {@link #snapshot()} re-creates only the nodes on paths which have changed since the last snapshot, sharing the rest.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class MutableTreeClock
+{
+    private final boolean isId;
+    private long ticks;
+    private MutableTreeClock left, right;
+    private TreeClock snapshot;
+
+    MutableTreeClock(TreeClock clock)
+    {
+        this.isId = clock.isId();
+        this.ticks = clock.nodeTicks();
+        final TreeClock.Fork fork = clock.branches();
+        if (fork != null)
+        {
+            this.left = new MutableTreeClock(fork.left);
+            this.right = new MutableTreeClock(fork.right);
+        }
+        this.snapshot = clock;
+    }
+
+    /**
+     * A new leaf with no process identity, equivalent to {@code TreeClock.HALLOWS}
+     */
+    private MutableTreeClock()
+    {
+        this.isId = false;
+    }
+
+    /**
+     * @return an immutable clock equal to this clock
+     */
+    TreeClock snapshot()
+    {
+        if (snapshot == null)
+            snapshot = TreeClock.node(isId, ticks,
+                                      left == null ? null : left.snapshot(),
+                                      right == null ? null : right.snapshot());
+        return snapshot;
+    }
+
+    /**
+     * @return {@code true} if this clock has a process identity, which has been ticked
+     * @see TreeClock#tick()
+     */
+    boolean tick()
+    {
+        if (isId)
+        {
+            ticks++;
+            snapshot = null;
+            return true;
+        }
+        else if (left != null && (left.tick() || right.tick()))
+        {
+            snapshot = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param other another clock with a non-overlapping process identity
+     * @return {@code true} if this clock was changed
+     * @see TreeClock#update(TreeClock)
+     */
+    boolean update(TreeClock other)
+    {
+        if (isId)
+        {
+            if (other.isId() && other.nodeTicks() > ticks)
+                throw new IllegalArgumentException("Trying to update from overlapping clock");
+            return false;
+        }
+        else
+        {
+            boolean changed = false;
+            if (other.nodeTicks() > ticks)
+            {
+                ticks = other.nodeTicks();
+                changed = true;
+            }
+            final TreeClock.Fork otherFork = other.branches();
+            if (otherFork != null)
+            {
+                if (left == null)
+                {
+                    left = new MutableTreeClock();
+                    right = new MutableTreeClock();
+                    changed = true;
+                }
+                changed |= left.update(otherFork.left);
+                changed |= right.update(otherFork.right);
+            }
+            if (changed)
+                snapshot = null;
+            return changed;
+        }
+    }
+
+    /**
+     * @see TreeClock#anyLt(TreeClock)
+     */
+    boolean anyLt(TreeClock other)
+    {
+        final TreeClock.Fork otherFork = other.branches();
+        if (left == null || otherFork == null)
+            return !isId && !other.isId() && ticks(false) < other.ticksOrNone(false);
+        else
+            return left.anyLt(otherFork.left) || right.anyLt(otherFork.right);
+    }
+
+    /**
+     * @see TreeClock#hasSeen(TreeClock)
+     */
+    boolean hasSeen(TreeClock time)
+    {
+        return zeroIfNone(ticksFor(this, time)) >= time.ticks();
+    }
+
+    /**
+     * @see TreeClock#ticks(Boolean)
+     */
+    private long ticks(Boolean forId)
+    {
+        if (forId == null || forId == isId)
+        {
+            return ticks + (left == null ? 0L :
+                zeroIfNone(left.ticks(forId == null || forId ? null : false)) +
+                    zeroIfNone(right.ticks(forId == null || forId ? null : false)));
+        }
+        else if (left != null)
+        {
+            final long leftResult = left.ticks(forId), rightResult = right.ticks(forId);
+            if (leftResult != NONE || rightResult != NONE)
+                return ticks + zeroIfNone(leftResult) + zeroIfNone(rightResult);
+        }
+        return NONE;
+    }
+
+    /**
+     * @param node a node of this clock, or {@code null} for a leaf with no process identity
+     * @param id   the clock whose process identity to find ticks for
+     * @return the ticks that the node has for the process identity, or {@link TreeClock#NONE}
+     */
+    private static long ticksFor(MutableTreeClock node, TreeClock id)
+    {
+        if (id.isId())
+        {
+            return node == null ? 0L : node.ticks(null);
+        }
+        else if (id.branches() != null)
+        {
+            final boolean leaf = node == null || node.left == null;
+            final long leftResult = ticksFor(leaf ? null : node.left, id.branches().left),
+                rightResult = ticksFor(leaf ? null : node.right, id.branches().right);
+            if (leftResult != NONE || rightResult != NONE)
+                return (node == null ? 0L : node.ticks) + zeroIfNone(leftResult) + zeroIfNone(rightResult);
+        }
+        return NONE;
+    }
+}
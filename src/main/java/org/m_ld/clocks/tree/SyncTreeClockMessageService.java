@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.tree;
+
+import org.m_ld.clocks.Gap;
+import org.m_ld.clocks.Message;
+import org.m_ld.clocks.MessageService;
+
+import java.util.List;
+import java.util.stream.StreamSupport;
+
+/**
+ * A {@link MessageService} using a {@link TreeClock} which is ticked and updated in place, to be used in processes
+ * that themselves handle thread-safe access to their local clocks, for example by confinement to a single thread.
+ * <p>
+ * Delivery decisions are made against the mutable clock directly. The immutable clock returned by {@link #peek()} is
+ * created on demand, re-using the parts of the previous one which have not changed since.
+ */
+public class SyncTreeClockMessageService extends MessageService<TreeClock>
+{
+    private MutableTreeClock localTime;
+
+    public SyncTreeClockMessageService(TreeClock localTime)
+    {
+        this.localTime = new MutableTreeClock(localTime);
+    }
+
+    @Override
+    public TreeClock peek()
+    {
+        return localTime.snapshot();
+    }
+
+    @Override
+    public void event()
+    {
+        localTime.tick();
+    }
+
+    @Override
+    public void join(TreeClock metadata)
+    {
+        localTime.update(metadata);
+    }
+
+    /**
+     * Finds all the causal gaps for a buffer of messages, for which re-transmission can be requested.
+     *
+     * @param buffer a buffer of messages which cannot yet be delivered
+     * @return at most one gap per part of the clock tree
+     * @see TreeClock#missing(TreeClock)
+     */
+    public List<Gap<TreeClock>> missing(Iterable<? extends Message<TreeClock, ?>> buffer)
+    {
+        final TreeClock localTime = peek();
+        return Gap.aggregate(StreamSupport.stream(buffer.spliterator(), false)
+                                 .flatMap(message -> localTime.missing(message.time()).stream()));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Forking is expected to be rare, so is performed on an immutable snapshot of the clock.
+     */
+    @Override
+    public TreeClock fork()
+    {
+        final TreeClock.Fork fork = peek().fork();
+        localTime = new MutableTreeClock(fork.left);
+        return fork.right;
+    }
+
+    @Override
+    protected boolean alreadyDelivered(TreeClock senderTime)
+    {
+        return localTime.hasSeen(senderTime);
+    }
+
+    @Override
+    protected boolean readyFor(TreeClock senderTime)
+    {
+        return !localTime.anyLt(senderTime);
+    }
+}
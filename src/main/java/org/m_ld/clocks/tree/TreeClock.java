@@ -6,13 +6,18 @@
 package org.m_ld.clocks.tree;
 
 import org.m_ld.clocks.CausalClock;
+import org.m_ld.clocks.CausalOrder;
+import org.m_ld.clocks.Gap;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Stream;
 
 import static java.lang.String.format;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 
 /**
@@ -31,9 +36,15 @@ import static java.util.stream.Collectors.toList;
 public class TreeClock implements CausalClock<TreeClock>, Serializable
 {
     private static final long serialVersionUID = 1L;
+    private static final int LESS = 1, GREATER = 2;
+    /**
+     * Ticks are never negative, so this stands for the absence of ticks for a process identity
+     */
+    static final long NONE = -1L;
     private final boolean isId;
     private final long ticks;
     private final Fork fork;
+    private transient int hashCode;
 
     /**
      * An immutable pair of related clocks
@@ -95,7 +106,7 @@ public class TreeClock implements CausalClock<TreeClock>, Serializable
      */
     public long ticks()
     {
-        return zeroIfNull(ticks(true));
+        return zeroIfNone(ticksOrNone(true));
     }
 
     /**
@@ -105,19 +116,57 @@ public class TreeClock implements CausalClock<TreeClock>, Serializable
      */
     public Long ticks(Boolean forId)
     {
-        if (forId == null || forId.equals(isId))
+        final long ticks = ticksOrNone(forId);
+        return ticks == NONE ? null : ticks;
+    }
+
+    /**
+     * Primitive equivalent of {@link #ticks(Boolean)}, which does not allocate.
+     *
+     * @return ticks for this clock or all other clocks, or {@link #NONE}
+     */
+    long ticksOrNone(Boolean forId)
+    {
+        if (forId == null || forId == isId)
         {
             return ticks + (fork == null ? 0L :
-                zeroIfNull(fork.left.ticks(forId == null || forId ? null : false)) +
-                    zeroIfNull(fork.right.ticks(forId == null || forId ? null : false)));
+                zeroIfNone(fork.left.ticksOrNone(forId == null || forId ? null : false)) +
+                    zeroIfNone(fork.right.ticksOrNone(forId == null || forId ? null : false)));
         }
         else if (fork != null)
         {
-            final Long leftResult = fork.left.ticks(forId), rightResult = fork.right.ticks(forId);
-            if (leftResult != null || rightResult != null)
-                return ticks + zeroIfNull(leftResult) + zeroIfNull(rightResult);
+            final long leftResult = fork.left.ticksOrNone(forId), rightResult = fork.right.ticksOrNone(forId);
+            if (leftResult != NONE || rightResult != NONE)
+                return ticks + zeroIfNone(leftResult) + zeroIfNone(rightResult);
         }
-        return null;
+        return NONE;
+    }
+
+    /**
+     * @param other another clock
+     * @return the ticks that this clock has for the process identity of the other clock
+     */
+    public long ticksOf(TreeClock other)
+    {
+        return zeroIfNone(ticksFor(other));
+    }
+
+    /**
+     * @return a clock with this clock's process identity and no ticks, suitable as a key for the process
+     */
+    public TreeClock identity()
+    {
+        if (isId)
+            return GENESIS;
+        if (fork == null)
+            return HALLOWS;
+        final TreeClock left = fork.left.identity(), right = fork.right.identity();
+        return left == HALLOWS && right == HALLOWS ? HALLOWS : new TreeClock(false, 0L, new Fork(left, right));
+    }
+
+    @Override public boolean hasSeen(TreeClock time)
+    {
+        return ticksOf(time) >= time.ticks();
     }
 
     /**
@@ -254,7 +303,7 @@ public class TreeClock implements CausalClock<TreeClock>, Serializable
         {
             if (!isId && !other.isId)
             {
-                return ticks(false) < other.ticks(false);
+                return ticksOrNone(false) < other.ticksOrNone(false);
             }
             else
             {
@@ -267,9 +316,92 @@ public class TreeClock implements CausalClock<TreeClock>, Serializable
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The ticks for each part of the tree are the sum of the ticks on the path to it. This method walks both trees
+     * together in a single traversal, returning as soon as the clocks are found to be concurrent.
+     */
+    @Override public CausalOrder compare(TreeClock other)
+    {
+        final int order = order(this, ticks, other, other.ticks);
+        return CausalOrder.of((order & LESS) != 0, (order & GREATER) != 0);
+    }
+
+    /**
+     * @param clock      a clock node, or {@code null} if the previous node was a leaf
+     * @param ticks      the sum of ticks on the path to the clock node
+     * @param other      another clock node, or {@code null} if the previous node was a leaf
+     * @param otherTicks the sum of ticks on the path to the other clock node
+     * @return a mask of {@link #LESS} and {@link #GREATER}
+     */
+    private static int order(TreeClock clock, long ticks, TreeClock other, long otherTicks)
+    {
+        final Fork fork = clock == null ? null : clock.fork, otherFork = other == null ? null : other.fork;
+        if (fork == null && otherFork == null)
+            return ticks < otherTicks ? LESS : ticks > otherTicks ? GREATER : 0;
+
+        final int left = order(fork == null ? null : fork.left,
+                               fork == null ? ticks : ticks + fork.left.ticks,
+                               otherFork == null ? null : otherFork.left,
+                               otherFork == null ? otherTicks : otherTicks + otherFork.left.ticks);
+        if (left == (LESS | GREATER))
+            return left;
+        return left | order(fork == null ? null : fork.right,
+                            fork == null ? ticks : ticks + fork.right.ticks,
+                            otherFork == null ? null : otherFork.right,
+                            otherFork == null ? otherTicks : otherTicks + otherFork.right.ticks);
+    }
+
+    /**
+     * Finds the causal gaps between this clock and another clock, i.e. the ticks for process identities other than
+     * those of this clock and the other clock, which are required to be seen before a message with the other clock can
+     * be delivered.
+     *
+     * @param other the clock of a message which cannot be delivered
+     * @return the gaps for each part of the tree which this clock has not seen. The process of each gap is a clock
+     * with an identity at that part of the tree.
+     * @see #anyLt(TreeClock)
+     */
+    public List<Gap<TreeClock>> missing(TreeClock other)
+    {
+        return missing(0L, other, 0L);
+    }
+
+    /**
+     * @param pathTicks      the sum of ticks on the path to this clock node, excluding it
+     * @param other          another clock node
+     * @param otherPathTicks the sum of ticks on the path to the other clock node, excluding it
+     * @return the gaps, with absolute bounds
+     */
+    private List<Gap<TreeClock>> missing(long pathTicks, TreeClock other, long otherPathTicks)
+    {
+        if (fork == null || other.fork == null)
+        {
+            if (!isId && !other.isId)
+            {
+                final long after = pathTicks + ticks(false), upTo = otherPathTicks + other.ticks(false);
+                if (after < upTo)
+                    return singletonList(new Gap<>(GENESIS, after, upTo));
+            }
+            return emptyList();
+        }
+        else
+        {
+            final List<Gap<TreeClock>> gaps = new ArrayList<>();
+            final long childPathTicks = pathTicks + ticks, otherChildPathTicks = otherPathTicks + other.ticks;
+            for (Gap<TreeClock> gap : fork.left.missing(childPathTicks, other.fork.left, otherChildPathTicks))
+                gaps.add(new Gap<>(new TreeClock(false, 0, new Fork(gap.process, HALLOWS)), gap.after, gap.upTo));
+            for (Gap<TreeClock> gap : fork.right.missing(childPathTicks, other.fork.right, otherChildPathTicks))
+                gaps.add(new Gap<>(new TreeClock(false, 0, new Fork(HALLOWS, gap.process)), gap.after, gap.upTo));
+            return gaps;
+        }
+    }
+
     @Override public boolean equals(Object o)
     {
-        return o instanceof TreeClock &&
+        return o == this || o instanceof TreeClock &&
+            hashCode() == o.hashCode() &&
             isId == ((TreeClock)o).isId &&
             ticks == ((TreeClock)o).ticks &&
             Objects.equals(fork, ((TreeClock)o).fork);
@@ -277,7 +409,10 @@ public class TreeClock implements CausalClock<TreeClock>, Serializable
 
     @Override public int hashCode()
     {
-        return Objects.hash(isId, ticks, fork);
+        // Immutable, so cache the hash code; benign race
+        if (hashCode == 0)
+            hashCode = Objects.hash(isId, ticks, fork);
+        return hashCode;
     }
 
     @Override public String toString()
@@ -299,8 +434,51 @@ public class TreeClock implements CausalClock<TreeClock>, Serializable
         this.fork = fork;
     }
 
-    private static long zeroIfNull(Long value)
+    /**
+     * Package-level constructor for other representations of the tree.
+     *
+     * @param left  the left branch, or {@code null} for a leaf
+     * @param right the right branch, or {@code null} for a leaf
+     */
+    static TreeClock node(boolean isId, long ticks, TreeClock left, TreeClock right)
+    {
+        return new TreeClock(isId, ticks, left == null ? null : new Fork(left, right));
+    }
+
+    /**
+     * @return the ticks at this node of the tree only, excluding any branches
+     */
+    long nodeTicks()
+    {
+        return ticks;
+    }
+
+    /**
+     * @return the branches of this node of the tree, or {@code null} if this is a leaf
+     */
+    Fork branches()
+    {
+        return fork;
+    }
+
+    private long ticksFor(TreeClock id)
+    {
+        if (id.isId)
+        {
+            return ticksOrNone(null);
+        }
+        else if (id.fork != null)
+        {
+            final long leftResult = (fork == null ? HALLOWS : fork.left).ticksFor(id.fork.left),
+                rightResult = (fork == null ? HALLOWS : fork.right).ticksFor(id.fork.right);
+            if (leftResult != NONE || rightResult != NONE)
+                return ticks + zeroIfNone(leftResult) + zeroIfNone(rightResult);
+        }
+        return NONE;
+    }
+
+    static long zeroIfNone(long ticks)
     {
-        return value == null ? 0L : value;
+        return ticks == NONE ? 0L : ticks;
     }
 }
\ No newline at end of file
@@ -5,8 +5,13 @@
 
 package org.m_ld.clocks.tree;
 
+import org.m_ld.clocks.Gap;
+import org.m_ld.clocks.Message;
 import org.m_ld.clocks.MessageService;
 
+import java.util.List;
+import java.util.stream.StreamSupport;
+
 /**
  * A {@link MessageService} using a {@link TreeClock} to ensure causally-ordered message delivery.
  */
@@ -37,6 +42,19 @@ public class TreeClockMessageService extends MessageService<TreeClock>
         localTime = localTime.update(metadata);
     }
 
+    /**
+     * Finds all the causal gaps for a buffer of messages, for which re-transmission can be requested.
+     *
+     * @param buffer a buffer of messages which cannot yet be delivered
+     * @return at most one gap per part of the clock tree
+     * @see TreeClock#missing(TreeClock)
+     */
+    public synchronized List<Gap<TreeClock>> missing(Iterable<? extends Message<TreeClock, ?>> buffer)
+    {
+        return Gap.aggregate(StreamSupport.stream(buffer.spliterator(), false)
+                                 .flatMap(message -> localTime.missing(message.time()).stream()));
+    }
+
     @Override
     public synchronized TreeClock fork()
     {
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.vector;
+
+import org.m_ld.clocks.CausalClock;
+import org.m_ld.clocks.CausalOrder;
+
+import java.util.Arrays;
+
+import static java.lang.String.format;
+
+/**
+ * An immutable vector clock for a large, fixed group of processes, each identified by its index into a primitive
+ * array of ticks. The join and comparison loops have no per-entry allocation or boxing. The local clock of a process
+ * is maintained by a {@link DenseVectorClockMessageService}.
+ * <p>
+ * Clocks of different lengths can be compared and joined; missing entries are taken to be zero.
+ */
+public final class DenseVectorClock implements CausalClock<DenseVectorClock>
+{
+    private static final int LANES = 4;
+    private final int process;
+    private final long[] ticks;
+
+    private DenseVectorClock(int process, long[] ticks)
+    {
+        if (process < 0 || process >= ticks.length)
+            throw new IllegalArgumentException("Vector clock does not contain its own process index");
+
+        this.process = process;
+        this.ticks = ticks;
+    }
+
+    /**
+     * @param process the index of the process from which the clock originates
+     * @param size    the number of processes in the group
+     * @return a new clock with zero ticks for every process
+     */
+    public static DenseVectorClock clock(int process, int size)
+    {
+        return new DenseVectorClock(process, new long[size]);
+    }
+
+    /**
+     * @param process the index of the process from which the clock originates
+     * @param ticks   the ticks for each process, which are copied
+     * @return a new clock
+     */
+    public static DenseVectorClock clock(int process, long[] ticks)
+    {
+        return new DenseVectorClock(process, ticks.clone());
+    }
+
+    /**
+     * @return the index of the process from which this vector clock originated.
+     */
+    public int processIndex()
+    {
+        return process;
+    }
+
+    /**
+     * @return the number of entries in the vector
+     */
+    public int size()
+    {
+        return ticks.length;
+    }
+
+    /**
+     * @param process a process index
+     * @return the number of ticks on that process's clock, or {@code 0} if it is not in the vector
+     */
+    public long ticks(int process)
+    {
+        return process < ticks.length ? ticks[process] : 0L;
+    }
+
+    /**
+     * @return a copy of this clock with one more tick for its own process
+     */
+    public DenseVectorClock ticked()
+    {
+        final long[] ticked = ticks.clone();
+        ticked[process]++;
+        return new DenseVectorClock(process, ticked);
+    }
+
+    /**
+     * @param other another clock
+     * @return a clock for this clock's process, with the maximum of the ticks of this and the other clock
+     */
+    public DenseVectorClock join(DenseVectorClock other)
+    {
+        final long[] joined = Arrays.copyOf(ticks, Math.max(ticks.length, other.ticks.length));
+        max(joined, other.ticks);
+        return new DenseVectorClock(process, joined);
+    }
+
+    /**
+     * Joins the ticks of this clock into the given ticks, in place if they are long enough.
+     *
+     * @param target the ticks to update
+     * @return the target, or a longer copy of it if this clock has more entries
+     */
+    long[] joinInto(long[] target)
+    {
+        if (target.length < ticks.length)
+            target = Arrays.copyOf(target, ticks.length);
+        max(target, ticks);
+        return target;
+    }
+
+    /**
+     * Sets each entry of the target to the maximum of itself and the equivalent entry of the source.
+     *
+     * @param target the ticks to update in place; must be at least as long as the source
+     * @param source the ticks to join
+     */
+    public static void max(long[] target, long[] source)
+    {
+        final int n = source.length, unrolled = n - n % LANES;
+        int i = 0;
+        for (; i < unrolled; i += LANES)
+        {
+            target[i] = Math.max(target[i], source[i]);
+            target[i + 1] = Math.max(target[i + 1], source[i + 1]);
+            target[i + 2] = Math.max(target[i + 2], source[i + 2]);
+            target[i + 3] = Math.max(target[i + 3], source[i + 3]);
+        }
+        for (; i < n; i++)
+            target[i] = Math.max(target[i], source[i]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * As for {@link VectorClock#anyLt}, the entries for this clock's process and the other clock's process are
+     * excluded. They are masked out by splitting the vector into the ranges around them.
+     */
+    @Override public boolean anyLt(DenseVectorClock other)
+    {
+        return anyLt(ticks, process, other);
+    }
+
+    /**
+     * As for {@link #anyLt(DenseVectorClock)}, for a clock which is not (yet) immutable.
+     *
+     * @param ticks   the ticks of the clock
+     * @param process the index of the process from which the clock originates
+     */
+    static boolean anyLt(long[] ticks, int process, DenseVectorClock other)
+    {
+        final int lo = Math.min(process, other.process), hi = Math.max(process, other.process);
+        final int n = other.ticks.length;
+        return anyLt(ticks, other.ticks, 0, Math.min(lo, n)) ||
+            anyLt(ticks, other.ticks, Math.min(lo + 1, n), Math.min(hi, n)) ||
+            anyLt(ticks, other.ticks, Math.min(hi + 1, n), n);
+    }
+
+    @Override public boolean hasSeen(DenseVectorClock time)
+    {
+        return ticks(time.process) >= time.ticks[time.process];
+    }
+
+    @Override public CausalOrder compare(DenseVectorClock other)
+    {
+        final int shared = Math.min(ticks.length, other.ticks.length);
+        boolean anyLess = false, anyGreater = false;
+        final int unrolled = shared - shared % LANES;
+        int i = 0;
+        for (; i < unrolled && !(anyLess && anyGreater); i += LANES)
+        {
+            final long[] a = ticks, b = other.ticks;
+            anyLess |= a[i] < b[i] | a[i + 1] < b[i + 1] | a[i + 2] < b[i + 2] | a[i + 3] < b[i + 3];
+            anyGreater |= a[i] > b[i] | a[i + 1] > b[i + 1] | a[i + 2] > b[i + 2] | a[i + 3] > b[i + 3];
+        }
+        for (; i < shared; i++)
+        {
+            anyLess |= ticks[i] < other.ticks[i];
+            anyGreater |= ticks[i] > other.ticks[i];
+        }
+        // Entries beyond the shared length are compared against zero
+        anyGreater |= anyPositive(ticks, shared);
+        anyLess |= anyPositive(other.ticks, shared);
+        return CausalOrder.of(anyLess, anyGreater);
+    }
+
+    /**
+     * @param from the first index of the range, inclusive; must be within {@code b}
+     * @param to   the last index of the range, exclusive; must be within {@code b}
+     * @return {@code true} if any entry of {@code a} in the range is less than the equivalent entry of {@code b}
+     */
+    private static boolean anyLt(long[] a, long[] b, int from, int to)
+    {
+        final int shared = Math.max(from, Math.min(to, a.length));
+        final int unrolled = shared - (shared - from) % LANES;
+        int i = from;
+        for (; i < unrolled; i += LANES)
+            if (a[i] < b[i] | a[i + 1] < b[i + 1] | a[i + 2] < b[i + 2] | a[i + 3] < b[i + 3])
+                return true;
+        for (; i < shared; i++)
+            if (a[i] < b[i])
+                return true;
+        // Entries beyond the length of a are zero
+        for (i = shared; i < to; i++)
+            if (b[i] > 0)
+                return true;
+        return false;
+    }
+
+    private static boolean anyPositive(long[] ticks, int from)
+    {
+        for (int i = from; i < ticks.length; i++)
+            if (ticks[i] > 0)
+                return true;
+        return false;
+    }
+
+    @Override public int hashCode()
+    {
+        return 31 * process + Arrays.hashCode(ticks);
+    }
+
+    @Override public boolean equals(Object obj)
+    {
+        return obj instanceof DenseVectorClock &&
+            process == ((DenseVectorClock)obj).process &&
+            Arrays.equals(ticks, ((DenseVectorClock)obj).ticks);
+    }
+
+    @Override public String toString()
+    {
+        return format("DenseVectorClock process=%d, size=%d", process, ticks.length);
+    }
+}
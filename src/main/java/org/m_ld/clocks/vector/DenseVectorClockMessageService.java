@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.vector;
+
+import org.m_ld.clocks.MessageService;
+
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/**
+ * A {@link MessageService} using a {@link DenseVectorClock} whose ticks are incremented and joined in place, to be
+ * used in processes that themselves handle thread-safe access to their local clocks.
+ * <p>
+ * Delivery decisions are made against the mutable ticks directly, so no clock is allocated per received message. The
+ * immutable clock returned by {@link #peek()} is a copy of the ticks.
+ */
+public class DenseVectorClockMessageService extends MessageService<DenseVectorClock>
+{
+    private final int process;
+    private final IntSupplier newIndex;
+    private long[] ticks;
+
+    /**
+     * @param localTime the initial clock of this process
+     * @param newIndex  supplies the index of each new process {@link #fork() forked} by this one. It must be shared by
+     *                  every process in the group that can fork, so that no index is supplied twice.
+     */
+    public DenseVectorClockMessageService(DenseVectorClock localTime, IntSupplier newIndex)
+    {
+        this.process = localTime.processIndex();
+        this.newIndex = newIndex;
+        this.ticks = localTime.joinInto(new long[localTime.size()]);
+    }
+
+    @Override
+    public DenseVectorClock peek()
+    {
+        return DenseVectorClock.clock(process, ticks);
+    }
+
+    @Override
+    public void event()
+    {
+        ticks[process]++;
+    }
+
+    @Override
+    public void join(DenseVectorClock metadata)
+    {
+        ticks = metadata.joinInto(ticks);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The new process is given the next index from the index supplier.
+     *
+     * @throws IllegalStateException if the supplied index is known to be in use
+     */
+    @Override
+    public DenseVectorClock fork()
+    {
+        final int index = newIndex.getAsInt();
+        if (index == process || index < ticks.length && ticks[index] != 0)
+            throw new IllegalStateException("Process index " + index + " is already in use");
+        if (index >= ticks.length)
+            ticks = Arrays.copyOf(ticks, index + 1);
+        return DenseVectorClock.clock(index, ticks);
+    }
+
+    @Override
+    protected boolean alreadyDelivered(DenseVectorClock senderTime)
+    {
+        final int sender = senderTime.processIndex();
+        return sender < ticks.length && ticks[sender] >= senderTime.ticks(sender);
+    }
+
+    @Override
+    protected boolean readyFor(DenseVectorClock senderTime)
+    {
+        return !DenseVectorClock.anyLt(ticks, process, senderTime);
+    }
+}
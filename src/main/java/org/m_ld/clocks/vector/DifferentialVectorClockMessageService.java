@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.vector;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import static org.m_ld.clocks.vector.WireVectorClock.clock;
+
+/**
+ * A {@link SyncVectorClockMessageService} which can send and receive only the entries of the vector which have
+ * changed since the sender last sent to the receiver, after Singhal &amp; Kshemkalyani, <i>An efficient
+ * implementation of vector clocks</i> (Information Processing Letters, 1992).
+ * <p>
+ * The sender remembers when each entry of its vector was last updated, and when it last sent to each destination.
+ * After {@link #send()}, it obtains a {@link #delta(Object)} for each destination. The receiver remembers the last
+ * known vector of each sender, so that it can {@link #expand(VectorClockDelta)} a delta into the sender's full clock,
+ * for causal delivery as normal. This relies on the reliable FIFO channels required by
+ * {@link VectorClockMessageService}: deltas from a sender must be expanded in the order they were sent.
+ */
+public class DifferentialVectorClockMessageService<PID> extends SyncVectorClockMessageService<PID>
+{
+    /**
+     * The update count at which each entry of our vector was last updated, and the reverse
+     */
+    private final Map<PID, Long> updatedAt = new HashMap<>();
+    private final TreeMap<Long, PID> updates = new TreeMap<>();
+    /**
+     * The update count at which we last sent to each destination
+     */
+    private final Map<PID, Long> sentAt = new HashMap<>();
+    /**
+     * The last known vector of each sender
+     */
+    private final Map<PID, Map<PID, Long>> senderVectors = new HashMap<>();
+    private long updateCount = 0L, entriesSent = 0L, entriesElided = 0L;
+
+    public DifferentialVectorClockMessageService(Supplier<PID> newPid)
+    {
+        super(newPid);
+        vector().keySet().forEach(this::updated);
+    }
+
+    public DifferentialVectorClockMessageService(VectorClock<PID> time, Supplier<PID> newPid)
+    {
+        super(time, newPid);
+        vector().keySet().forEach(this::updated);
+    }
+
+    @Override
+    public void event()
+    {
+        super.event();
+        updated(processId());
+    }
+
+    @Override
+    public void join(VectorClock<PID> metadata)
+    {
+        metadata.vector().forEach((pid, ticks) -> {
+            if (ticks > ticks(pid) || !vector().containsKey(pid))
+                updated(pid);
+        });
+        super.join(metadata);
+    }
+
+    @Override
+    public VectorClock<PID> fork()
+    {
+        final VectorClock<PID> forked = super.fork();
+        updated(forked.processId());
+        return forked;
+    }
+
+    /**
+     * Call after {@link #send()}, for every destination of the message.
+     *
+     * @param destination the receiving process
+     * @return the entries of the current clock that have changed since we last sent to the destination
+     */
+    public VectorClockDelta<PID> delta(PID destination)
+    {
+        final Map<PID, Long> entries = new HashMap<>();
+        for (PID pid : updates.tailMap(sentAt.getOrDefault(destination, 0L), false).values())
+            entries.put(pid, ticks(pid));
+        sentAt.put(destination, updateCount);
+        entriesSent += entries.size();
+        entriesElided += vector().size() - entries.size();
+        return new VectorClockDelta<>(processId(), entries);
+    }
+
+    /**
+     * Call when a delta arrives, in the order that the sender sent it, before receiving the message.
+     *
+     * @param delta a delta from another process
+     * @return the sender's full clock
+     */
+    public VectorClock<PID> expand(VectorClockDelta<PID> delta)
+    {
+        final Map<PID, Long> vector = senderVectors.computeIfAbsent(delta.processId(), pid -> new HashMap<>());
+        // Ticks only increase, so a duplicate delta cannot regress the vector
+        delta.entries().forEach((pid, ticks) -> vector.merge(pid, ticks, Math::max));
+        return clock(delta.processId(), vector);
+    }
+
+    /**
+     * @return the total number of vector entries sent in deltas
+     */
+    public long entriesSent()
+    {
+        return entriesSent;
+    }
+
+    /**
+     * @return the total number of vector entries that would have been sent in full clocks, but were not in deltas
+     */
+    public long entriesElided()
+    {
+        return entriesElided;
+    }
+
+    private void updated(PID pid)
+    {
+        final Long previous = updatedAt.put(pid, ++updateCount);
+        if (previous != null)
+            updates.remove(previous);
+        updates.put(updateCount, pid);
+    }
+}
@@ -6,9 +6,14 @@
 package org.m_ld.clocks.vector;
 
 import org.m_ld.clocks.CausalClock;
+import org.m_ld.clocks.CausalOrder;
+import org.m_ld.clocks.Gap;
 
+import java.util.List;
 import java.util.Map;
 
+import static java.util.stream.Collectors.toList;
+
 public interface VectorClock<PID> extends CausalClock<VectorClock<PID>>
 {
     /**
@@ -33,6 +38,36 @@ public interface VectorClock<PID> extends CausalClock<VectorClock<PID>>
         return vector().getOrDefault(pid, 0L);
     }
 
+    /**
+     * Finds the causal gaps between this clock and another clock, i.e. the ticks for processes other than the
+     * sender and receiver, which are required to be seen before a message with the other clock can be delivered.
+     *
+     * @param other the clock of a message which cannot be delivered
+     * @return the gaps for each process which this clock has not seen
+     * @see #anyLt(VectorClock)
+     */
+    default List<Gap<PID>> missing(VectorClock<PID> other)
+    {
+        return other.vector().entrySet().stream()
+            .filter(e -> !pid(e).equals(processId()) && !pid(e).equals(other.processId()))
+            .filter(e -> ticks(pid(e)) < e.getValue())
+            .map(e -> new Gap<>(pid(e), ticks(pid(e)), e.getValue()))
+            .collect(toList());
+    }
+
+    @Override default boolean hasSeen(VectorClock<PID> time)
+    {
+        return ticks(time.processId()) >= time.ticks(time.processId());
+    }
+
+    /**
+     * @return the sum of all the ticks in the vector
+     */
+    default long totalTicks()
+    {
+        return vector().values().stream().mapToLong(Long::longValue).sum();
+    }
+
     @Override default boolean anyLt(VectorClock<PID> other)
     {
         return other.vector().entrySet().stream()
@@ -40,6 +75,36 @@ public interface VectorClock<PID> extends CausalClock<VectorClock<PID>>
             .anyMatch(e -> ticks(pid(e)) < e.getValue());
     }
 
+    @Override default CausalOrder compare(VectorClock<PID> other)
+    {
+        boolean anyLess = false, anyGreater = false;
+        int shared = 0;
+        for (Map.Entry<PID, Long> e : vector().entrySet())
+        {
+            final Long otherTicks = other.vector().get(pid(e));
+            if (otherTicks != null)
+                shared++;
+            final long theirs = otherTicks == null ? 0L : otherTicks;
+            anyLess |= e.getValue() < theirs;
+            anyGreater |= e.getValue() > theirs;
+            if (anyLess && anyGreater)
+                return CausalOrder.CONCURRENT;
+        }
+        // Only look for the other's processes that we don't have, if there are any
+        if (!anyLess && shared < other.vector().size())
+        {
+            for (Map.Entry<PID, Long> e : other.vector().entrySet())
+            {
+                if (e.getValue() > 0 && !vector().containsKey(pid(e)))
+                {
+                    anyLess = true;
+                    break;
+                }
+            }
+        }
+        return CausalOrder.of(anyLess, anyGreater);
+    }
+
     static <PID> PID pid(Map.Entry<PID, Long> e)
     {
         return e.getKey();
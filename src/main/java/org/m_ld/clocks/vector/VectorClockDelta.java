@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.vector;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static java.lang.String.format;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * The entries of a sender's vector clock which have changed since it last sent a message to a particular destination,
+ * intended to be used on the wire in place of a full {@link WireVectorClock}. Java serialization is supported if the
+ * process IDs are serializable.
+ *
+ * @see DifferentialVectorClockMessageService
+ */
+public class VectorClockDelta<PID> implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+    private final PID pid;
+    private final Map<PID, Long> entries;
+
+    public VectorClockDelta(PID pid, Map<PID, Long> entries)
+    {
+        this.pid = pid;
+        this.entries = unmodifiableMap(new HashMap<>(entries));
+    }
+
+    /**
+     * @return the ID of the sending process
+     */
+    public PID processId()
+    {
+        return pid;
+    }
+
+    /**
+     * @return the changed entries of the sender's vector
+     */
+    public Map<PID, Long> entries()
+    {
+        return entries;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(pid, entries);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        return obj instanceof VectorClockDelta &&
+            Objects.equals(pid, ((VectorClockDelta)obj).pid) &&
+            Objects.equals(entries, ((VectorClockDelta)obj).entries);
+    }
+
+    @Override
+    public String toString()
+    {
+        return format("VectorClockDelta PID=%s, entries=%s", pid, entries);
+    }
+}
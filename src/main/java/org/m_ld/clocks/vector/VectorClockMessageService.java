@@ -5,11 +5,16 @@
 
 package org.m_ld.clocks.vector;
 
+import org.m_ld.clocks.Gap;
 import org.m_ld.clocks.Message;
 import org.m_ld.clocks.MessageService;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
 
 import static org.m_ld.clocks.vector.WireVectorClock.clock;
 
@@ -26,9 +31,14 @@ import static org.m_ld.clocks.vector.WireVectorClock.clock;
  * <li>processes don’t crash (failure and restart not considered)</li>
  * <li>no Byzantine behaviour</li>
  * </ul>
+ * Given FIFO channels, most messages from a sender carry no new dependencies on third parties since its last delivered
+ * message. This is detected in constant time by remembering, for each sender, the sum of the third-party ticks in
+ * its last delivered message; since each tick only increases, an equal sum means equal ticks.
  */
 public abstract class VectorClockMessageService<PID> extends MessageService<VectorClock<PID>> implements VectorClock<PID>
 {
+    private final Map<PID, Long> deliveredThirdPartyTicks = new HashMap<>();
+
     @Override
     public VectorClock<PID> peek()
     {
@@ -48,5 +58,41 @@ public abstract class VectorClockMessageService<PID> extends MessageService<Vect
         // update the other fields of the vector by comparing its values with the incoming vector (timestamp)
         // and recording the higher value in each field, thus updating this process’s knowledge of system state
         metadata.vector().forEach((pid, ticks) -> vector().merge(pid, ticks, Math::max));
+        deliveredThirdPartyTicks.put(metadata.processId(), thirdPartyTicks(metadata));
+    }
+
+    @Override
+    protected synchronized boolean alreadyDelivered(VectorClock<PID> senderTime)
+    {
+        // Compare with our own vector directly, rather than a snapshot
+        return hasSeen(senderTime);
+    }
+
+    @Override
+    protected synchronized boolean readyFor(VectorClock<PID> senderTime)
+    {
+        final Long delivered = deliveredThirdPartyTicks.get(senderTime.processId());
+        if (delivered != null && delivered == thirdPartyTicks(senderTime))
+            return true;
+        else
+            // Compare with our own vector directly, rather than a snapshot
+            return !anyLt(senderTime);
+    }
+
+    /**
+     * Finds all the causal gaps for a buffer of messages, for which re-transmission can be requested.
+     *
+     * @param buffer a buffer of messages which cannot yet be delivered
+     * @return at most one gap per process
+     */
+    public synchronized List<Gap<PID>> missing(Iterable<? extends Message<VectorClock<PID>, ?>> buffer)
+    {
+        return Gap.aggregate(StreamSupport.stream(buffer.spliterator(), false)
+                                 .flatMap(message -> missing(message.time()).stream()));
+    }
+
+    private long thirdPartyTicks(VectorClock<PID> senderTime)
+    {
+        return senderTime.totalTicks() - senderTime.ticks(senderTime.processId()) - senderTime.ticks(processId());
     }
 }
@@ -5,6 +5,7 @@
 
 package org.m_ld.clocks.vector;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -15,12 +16,15 @@ import static java.util.Collections.unmodifiableMap;
 
 /**
  * An immutable vector clock representation intended to be used on the wire.
- * Intended to be extended with appropriate serialization features.
+ * Intended to be extended with appropriate serialization features; Java serialization is supported if the process
+ * IDs are serializable.
  */
-public class WireVectorClock<PID> implements VectorClock<PID>
+public class WireVectorClock<PID> implements VectorClock<PID>, Serializable
 {
+    private static final long serialVersionUID = 1L;
     private final PID pid;
     private final Map<PID, Long> vector;
+    private final long totalTicks;
 
     private WireVectorClock(PID pid, Map<PID, Long> vector)
     {
@@ -29,6 +33,7 @@ public class WireVectorClock<PID> implements VectorClock<PID>
 
         this.pid = pid;
         this.vector = vector;
+        this.totalTicks = VectorClock.super.totalTicks();
     }
 
     public static <PID> WireVectorClock<PID> clock(PID pid, long ticks)
@@ -60,6 +65,12 @@ public class WireVectorClock<PID> implements VectorClock<PID>
         return vector;
     }
 
+    @Override
+    public long totalTicks()
+    {
+        return totalTicks;
+    }
+
     @Override
     public int hashCode()
     {
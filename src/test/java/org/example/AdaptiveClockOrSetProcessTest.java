@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.tree.AdaptiveClock;
+import org.m_ld.clocks.tree.AdaptiveClockMessageService;
+
+public class AdaptiveClockOrSetProcessTest
+    extends OrSetProcessTest<AdaptiveClock, OrSetProcess<AdaptiveClock, Integer>>
+{
+    private final AdaptiveClockMessageService genesis = new AdaptiveClockMessageService(AdaptiveClock.GENESIS);
+
+    public OrSetProcess<AdaptiveClock, Integer> createProcess()
+    {
+        return new OrSetProcess<>(createMessageService());
+    }
+
+    public OrSetProcess<AdaptiveClock, Integer> createProcess(int maxBatchSize, long maxBatchMillis, int maxMessageOps)
+    {
+        return new OrSetProcess<>(createMessageService(), maxBatchSize, maxBatchMillis, maxMessageOps);
+    }
+
+    private AdaptiveClockMessageService createMessageService()
+    {
+        // Evaluate the layout often, so that switches occur during tests
+        return new AdaptiveClockMessageService(genesis.fork(), 4, 0);
+    }
+}
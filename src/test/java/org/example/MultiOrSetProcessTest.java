@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.junit.Test;
+import org.m_ld.clocks.Message;
+import org.m_ld.clocks.tree.TreeClock;
+import org.m_ld.clocks.tree.TreeClockMessageService;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.*;
+
+public class MultiOrSetProcessTest
+{
+    @Test
+    public void testFramedConvergence()
+    {
+        final TreeClock.Fork fork = TreeClock.GENESIS.fork();
+        final MultiOrSetProcess<TreeClock, String, Integer>
+            p1 = new MultiOrSetProcess<>(new TreeClockMessageService(fork.left)),
+            p2 = new MultiOrSetProcess<>(new TreeClockMessageService(fork.right));
+
+        assertFalse(p1.flush().isPresent());
+        assertTrue(p1.add("doc1", 1));
+        assertTrue(p1.add("doc2", 2));
+        assertFalse(p1.add("doc2", 2));
+        final Message<TreeClock, Map<String, List<OrSet.Operation<Integer>>>> m1 =
+            p1.flush().orElseThrow(AssertionError::new);
+        assertEquals(2, m1.data().size());
+
+        assertTrue(p1.remove("doc1", 1));
+        assertFalse(p1.remove("doc3", 3));
+        final Message<TreeClock, Map<String, List<OrSet.Operation<Integer>>>> m2 =
+            p1.flush().orElseThrow(AssertionError::new);
+
+        p2.receive(m1);
+        p2.receive(m2);
+
+        assertEquals(emptySet(), p2.elements("doc1"));
+        assertEquals(singleton(2), p2.elements("doc2"));
+        assertEquals(p1.elements("doc2"), p2.elements("doc2"));
+    }
+}
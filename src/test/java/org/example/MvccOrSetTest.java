@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.junit.Test;
+import org.m_ld.clocks.Message;
+import org.m_ld.clocks.tree.TreeClock;
+import org.m_ld.clocks.tree.TreeClockMessageService;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.*;
+
+public class MvccOrSetTest
+{
+    @Test
+    public void testSnapshotIsolation()
+    {
+        final TreeClock.Fork fork = TreeClock.GENESIS.fork();
+        final MvccOrSetProcess<TreeClock, Integer>
+            p1 = new MvccOrSetProcess<>(new TreeClockMessageService(fork.left), 2),
+            p2 = new MvccOrSetProcess<>(new TreeClockMessageService(fork.right), 2);
+
+        final Message<TreeClock, List<OrSet.Operation<Integer>>> m1 = p1.add(1).orElseThrow(AssertionError::new);
+        try (MvccOrSet<TreeClock, Integer>.Snapshot snapshot = p1.snapshot())
+        {
+            p1.add(2);
+            p1.remove(1);
+            assertEquals(singleton(1), snapshot.stream().collect(toSet()));
+            assertTrue(snapshot.contains(1));
+            assertFalse(snapshot.contains(2));
+            assertEquals(m1.time(), snapshot.time());
+        }
+        assertEquals(singleton(2), p1.elements());
+
+        // A snapshot as of another process's clock sees only what that process has seen
+        p2.receive(m1);
+        try (MvccOrSet<TreeClock, Integer>.Snapshot snapshot = p1.snapshot(p2.time())
+            .orElseThrow(AssertionError::new))
+        {
+            assertEquals(singleton(1), snapshot.stream().collect(toSet()));
+        }
+        // Versions before the retained versions are not available
+        assertFalse(p1.snapshot(TreeClock.GENESIS).isPresent());
+    }
+
+    @Test
+    public void testRemovedTagsDiscarded()
+    {
+        TreeClock time = TreeClock.GENESIS;
+        final MvccOrSet<TreeClock, Integer> orSet = new MvccOrSet<>(time, 0);
+        orSet.apply(time = time.tick(), orSet.addOperations(1).orElseThrow(AssertionError::new));
+
+        final MvccOrSet<TreeClock, Integer>.Snapshot snapshot = orSet.snapshot();
+        orSet.apply(time = time.tick(), orSet.removeOperations(1).orElseThrow(AssertionError::new));
+        assertEquals(1, orSet.removedTags());
+        assertEquals(emptySet(), orSet.elements());
+        assertEquals(singleton(1), snapshot.stream().collect(toSet()));
+
+        snapshot.close();
+        snapshot.close(); // Idempotent
+        assertEquals(0, orSet.removedTags());
+        try
+        {
+            snapshot.contains(1);
+            fail("Closed snapshot should not be readable");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected
+        }
+        assertTrue(orSet.addOperations(1).isPresent());
+        assertFalse(orSet.removeOperations(1).isPresent());
+    }
+
+    @Test
+    public void testReadsDuringWrites() throws InterruptedException
+    {
+        final int size = 100, versions = 2_000;
+        final AtomicReference<TreeClock> time = new AtomicReference<>(TreeClock.GENESIS);
+        final MvccOrSet<TreeClock, Integer> orSet = new MvccOrSet<>(time.get(), 0);
+        orSet.apply(time.updateAndGet(TreeClock::tick), IntStream.range(0, size)
+            .mapToObj(e -> orSet.addOperations(e).orElseThrow(AssertionError::new).get(0))
+            .collect(ArrayList::new, ArrayList::add, ArrayList::addAll));
+
+        // Each version replaces one element with another, so every version has the same size
+        final Thread writer = new Thread(() -> {
+            for (int v = 0; v < versions; v++)
+            {
+                final List<OrSet.Operation<Integer>> ops = new ArrayList<>();
+                orSet.removeOperations(v).ifPresent(ops::addAll);
+                orSet.addOperations(v + size).ifPresent(ops::addAll);
+                orSet.apply(time.updateAndGet(TreeClock::tick), ops);
+            }
+        });
+        writer.start();
+        while (writer.isAlive())
+        {
+            try (MvccOrSet<TreeClock, Integer>.Snapshot snapshot = orSet.snapshot())
+            {
+                final Set<Integer> elements = new HashSet<>();
+                snapshot.forEach(elements::add);
+                assertEquals(size, elements.size());
+            }
+        }
+        writer.join();
+        assertEquals(IntStream.range(versions, versions + size).boxed().collect(toSet()), orSet.elements());
+        assertEquals(0, orSet.removedTags());
+        assertFalse(orSet.addOperations(versions).isPresent());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public class NioTransportTest
+{
+    private final List<Exception> errors = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testFramedDelivery() throws Exception
+    {
+        final BlockingQueue<List<ByteBuffer>> frames = new LinkedBlockingQueue<>();
+        final InetSocketAddress loopback = new InetSocketAddress("localhost", 0);
+        try (NioTransport sender = new NioTransport(loopback, frame -> {}, errors::add,
+                                                    10, 1 << 16, TimeUnit.SECONDS.toNanos(10), 100);
+             // Received messages are only valid during the handler, so are copied to be retained
+             NioTransport receiver = new NioTransport(loopback, frame -> frames.add(copy(frame)), errors::add,
+                                                      10, 1 << 16, TimeUnit.SECONDS.toNanos(10), 100))
+        {
+            sender.connect(receiver.address(), 10, TimeUnit.SECONDS);
+            for (int i = 0; i < 25; i++)
+            {
+                final ByteBuffer clock = ByteBuffer.allocateDirect(Integer.BYTES).putInt(0, i);
+                sender.send(clock, ByteBuffer.wrap(new byte[]{ (byte)i }));
+            }
+            // Two full frames are sent, and the remainder lingers
+            assertEquals(10, frames.poll(10, TimeUnit.SECONDS).size());
+            assertEquals(10, frames.poll(10, TimeUnit.SECONDS).size());
+            assertNull(frames.poll(100, TimeUnit.MILLISECONDS));
+            sender.flush();
+            final List<ByteBuffer> last = frames.poll(10, TimeUnit.SECONDS);
+            assertEquals(5, last.size());
+            final ByteBuffer message = last.get(4);
+            assertEquals(5, message.remaining());
+            assertEquals(24, message.getInt());
+            assertEquals(24, message.get());
+        }
+        assertEquals(emptyList(), errors);
+    }
+
+    @Test
+    public void testConnectTimesOutIfClosed() throws Exception
+    {
+        final InetSocketAddress loopback = new InetSocketAddress("localhost", 0);
+        try (NioTransport receiver = new NioTransport(loopback, frame -> {}, errors::add, 10, 1 << 16, 0, 100))
+        {
+            final NioTransport sender = new NioTransport(loopback, frame -> {}, errors::add, 10, 1 << 16, 0, 100);
+            // A closed transport never registers the connection
+            sender.close();
+            sender.connect(receiver.address(), 100, TimeUnit.MILLISECONDS);
+            fail("Connect should time out");
+        }
+        catch (SocketTimeoutException e)
+        {
+            // Expected
+        }
+        assertEquals(emptyList(), errors);
+    }
+
+    private static List<ByteBuffer> copy(List<ByteBuffer> frame)
+    {
+        return frame.stream().map(message -> (ByteBuffer)ByteBuffer.allocate(message.remaining()).put(message).flip())
+            .collect(toList());
+    }
+}
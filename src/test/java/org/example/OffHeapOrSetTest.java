@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.*;
+
+public class OffHeapOrSetTest
+{
+    @Test
+    public void testAddRemove()
+    {
+        final OffHeapOrSet<Integer> set = new OffHeapOrSet<>(OffHeapOrSet.Codec.INTEGER, 16);
+        assertTrue(set.add(1).isPresent());
+        assertFalse(set.add(1).isPresent());
+        assertTrue(set.remove(1).isPresent());
+        assertFalse(set.remove(1).isPresent());
+        assertTrue(set.elements().isEmpty());
+        assertEquals(0L, set.digest());
+    }
+
+    @Test
+    public void testConvergesWithOrSet()
+    {
+        final OrSet<Integer> orSet = new OrSet<>();
+        final OffHeapOrSet<Integer> offHeap = new OffHeapOrSet<>(OffHeapOrSet.Codec.INTEGER, 16);
+
+        // Concurrent adds of the same element give it two tags
+        final List<OrSet.Operation<Integer>> added = orSet.add(1).orElseThrow(AssertionError::new);
+        offHeap.apply(offHeap.add(1).orElseThrow(AssertionError::new));
+        orSet.apply(offHeap.remove(1).orElseThrow(AssertionError::new));
+        offHeap.apply(added);
+
+        IntStream.range(2, 1000).forEach(i -> offHeap.apply(orSet.add(i).orElseThrow(AssertionError::new)));
+        IntStream.range(2, 1000).filter(i -> i % 3 == 0)
+            .forEach(i -> orSet.apply(offHeap.remove(i).orElseThrow(AssertionError::new)));
+
+        assertEquals(orSet.elements(), offHeap.elements());
+        assertEquals(orSet.elements().size(), offHeap.size());
+        assertEquals(orSet.digest(), offHeap.digest());
+    }
+
+    @Test
+    public void testReopenFile() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("orset");
+        final Path file = dir.resolve("set.bin");
+        try
+        {
+            final long digest;
+            try (OffHeapOrSet<Long> set = new OffHeapOrSet<>(OffHeapOrSet.Codec.LONG, 16, file))
+            {
+                IntStream.range(0, 100).forEach(i -> set.add((long)i));
+                set.remove(50L);
+                digest = set.digest();
+            }
+            try (OffHeapOrSet<Long> set = new OffHeapOrSet<>(OffHeapOrSet.Codec.LONG, 16, file))
+            {
+                assertEquals(99, set.size());
+                assertEquals(digest, set.digest());
+                assertEquals(IntStream.range(0, 100).filter(i -> i != 50).mapToObj(i -> (long)i).collect(toSet()),
+                             set.elements());
+                assertFalse(set.add(1L).isPresent());
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+}
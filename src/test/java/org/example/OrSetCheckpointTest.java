@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.junit.Test;
+import org.m_ld.clocks.Message;
+import org.m_ld.clocks.tree.SyncTreeClockMessageService;
+import org.m_ld.clocks.tree.TreeClock;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public class OrSetCheckpointTest
+{
+    private static final int BUCKETS = 64;
+
+    @Test
+    public void testIncremental() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("checkpoint");
+        final Path file = dir.resolve("set.ckp");
+        try
+        {
+            final OrSet<Integer> orSet = new OrSet<>();
+            try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                     new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+            {
+                assertFalse(checkpoint.clock().isPresent());
+                orSet.addAll(IntStream.range(0, 1000).boxed().collect(toList()));
+                assertEquals(BUCKETS, checkpoint.capture(orSet, TreeClock.GENESIS).write());
+
+                // Only the changed buckets are written
+                orSet.add(1000);
+                orSet.remove(0);
+                assertEquals(2, checkpoint.capture(orSet, TreeClock.GENESIS.tick()).write());
+                assertEquals(0, checkpoint.capture(orSet, TreeClock.GENESIS.tick()).write());
+
+                // Superseded images do not accumulate without limit
+                for (int i = 0; i < 200; i++)
+                {
+                    orSet.remove(i % 100 + 1);
+                    orSet.add(i % 100 + 1);
+                    checkpoint.capture(orSet, TreeClock.GENESIS.tick()).write();
+                }
+                assertTrue(Files.size(file) < 3 * (1000 * (Integer.BYTES * 2 + 16) + BUCKETS * 12 + 1000));
+            }
+            assertRestores(orSet, file, TreeClock.GENESIS.tick());
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testWriteConcurrentWithChanges() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("checkpoint");
+        final Path file = dir.resolve("set.ckp");
+        try
+        {
+            final OrSet<Integer> orSet = new OrSet<>();
+            try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                     new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+            {
+                orSet.addAll(IntStream.range(0, 100).boxed().collect(toList()));
+                final OrSetCheckpoint<TreeClock, Integer>.Capture capture =
+                    checkpoint.capture(orSet, TreeClock.GENESIS);
+                final OrSet<Integer> captured = copy(orSet);
+
+                // Changes after the capture are not included
+                orSet.removeAll(IntStream.range(0, 50).boxed().collect(toList()));
+                orSet.add(100);
+                capture.write();
+                assertRestores(captured, file, TreeClock.GENESIS);
+
+                // But are included in the next checkpoint
+                checkpoint.capture(orSet, TreeClock.GENESIS.tick()).write();
+                assertRestores(orSet, file, TreeClock.GENESIS.tick());
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testProcessRestart() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("checkpoint");
+        final Path file = dir.resolve("set.ckp");
+        try
+        {
+            final TreeClock.Fork fork = TreeClock.GENESIS.fork();
+            final OrSetProcess<TreeClock, Integer> p1 = new OrSetProcess<>(new SyncTreeClockMessageService(fork.left));
+            final OrSetProcess<TreeClock, Integer> p2 = new OrSetProcess<>(new SyncTreeClockMessageService(fork.right));
+            IntStream.range(0, 10).forEach(i -> p2.receive(p1.add(i).orElseThrow(AssertionError::new)));
+            try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                     new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+            {
+                p2.checkpoint(checkpoint);
+                p2.receive(p1.remove(0).orElseThrow(AssertionError::new));
+                p2.checkpoint(checkpoint);
+            }
+            // p2 restarts from the checkpoint, and continues to receive from p1
+            try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                     new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+            {
+                final OrSetProcess<TreeClock, Integer> restarted = new OrSetProcess<>(
+                    new SyncTreeClockMessageService(checkpoint.clock().orElseThrow(AssertionError::new)));
+                restarted.restore(checkpoint);
+                assertEquals(p2.elements(), restarted.elements());
+                assertEquals(p2.digest(), restarted.digest());
+
+                restarted.receive(p1.add(10).orElseThrow(AssertionError::new));
+                final Message<TreeClock, List<OrSet.Operation<Integer>>> removed =
+                    restarted.remove(1).orElseThrow(AssertionError::new);
+                p1.receive(removed);
+                assertEquals(p1.elements(), restarted.elements());
+                // Only the buckets of the two changed elements are written
+                assertTrue(restarted.checkpoint(checkpoint) <= 2);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testSendAfterRestart() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("checkpoint");
+        final Path file = dir.resolve("set.ckp");
+        try
+        {
+            final TreeClock.Fork fork = TreeClock.GENESIS.fork();
+            final OrSetProcess<TreeClock, Integer> p1 = new OrSetProcess<>(new SyncTreeClockMessageService(fork.left));
+            final OrSetProcess<TreeClock, Integer> p2 = new OrSetProcess<>(new SyncTreeClockMessageService(fork.right));
+            try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                     new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+            {
+                p1.checkpointOnSend(checkpoint);
+                p2.receive(p1.add(1).orElseThrow(AssertionError::new));
+            }
+            // p1 restarts, and sends again with a new tick
+            try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                     new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+            {
+                final OrSetProcess<TreeClock, Integer> restarted = new OrSetProcess<>(
+                    new SyncTreeClockMessageService(checkpoint.clock().orElseThrow(AssertionError::new)));
+                restarted.restore(checkpoint);
+                restarted.checkpointOnSend(checkpoint);
+                assertEquals(singleton(1), restarted.elements());
+                p2.receive(restarted.add(2).orElseThrow(AssertionError::new));
+                assertEquals(restarted.elements(), p2.elements());
+                assertEquals(restarted.digest(), p2.digest());
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testSendAfterStaleCheckpointIsDiscarded() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("checkpoint");
+        final Path file = dir.resolve("set.ckp");
+        try
+        {
+            final TreeClock.Fork fork = TreeClock.GENESIS.fork();
+            final OrSetProcess<TreeClock, Integer> p1 = new OrSetProcess<>(new SyncTreeClockMessageService(fork.left));
+            final OrSetProcess<TreeClock, Integer> p2 = new OrSetProcess<>(new SyncTreeClockMessageService(fork.right));
+            try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                     new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+            {
+                p1.checkpoint(checkpoint);
+                p2.receive(p1.add(1).orElseThrow(AssertionError::new));
+            }
+            // Without a checkpoint after the send, the restarted process re-uses the tick of its last message
+            try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                     new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+            {
+                final OrSetProcess<TreeClock, Integer> restarted = new OrSetProcess<>(
+                    new SyncTreeClockMessageService(checkpoint.clock().orElseThrow(AssertionError::new)));
+                restarted.restore(checkpoint);
+                p2.receive(restarted.add(2).orElseThrow(AssertionError::new));
+                assertEquals(singleton(1), p2.elements());
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testFailedCheckpointOnSend() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("checkpoint");
+        final Path file = dir.resolve("set.ckp");
+        // A directory in place of the temporary file causes the next full rewrite of the checkpoint to fail
+        final Path blocker = Files.createDirectory(dir.resolve("set.ckp.tmp"));
+        try
+        {
+            final TreeClock.Fork fork = TreeClock.GENESIS.fork();
+            final OrSetProcess<TreeClock, Integer> p1 = new OrSetProcess<>(new SyncTreeClockMessageService(fork.left));
+            final OrSetProcess<TreeClock, Integer> p2 = new OrSetProcess<>(new SyncTreeClockMessageService(fork.right));
+            try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                     new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+            {
+                p1.checkpointOnSend(checkpoint);
+                p1.addAll(IntStream.range(0, 100).boxed().collect(toList()))
+                    .forEach(message -> p2.receive(message.orElseThrow(AssertionError::new)));
+                for (int i = 0; i < 1000 && !p1.checkpointFailure().isPresent(); i++)
+                    p2.receive(p1.remove(i % 100).orElseThrow(AssertionError::new));
+                assertTrue(p1.checkpointFailure().isPresent());
+                assertTrue(checkpoint.isStale());
+                // The message which failed to checkpoint was still sent
+                assertEquals(p1.elements(), p2.elements());
+            }
+            // The stale checkpoint cannot be restored
+            try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                     new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+            {
+                assertTrue(checkpoint.isStale());
+                checkpoint.restore(new OrSet<>());
+                fail("Stale checkpoint should not be restored");
+            }
+            catch (IOException e)
+            {
+                // Expected
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(blocker);
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCannotCheckpointBatch() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("checkpoint");
+        final Path file = dir.resolve("set.ckp");
+        try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                 new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+        {
+            final OrSetProcess<TreeClock, Integer> process =
+                new OrSetProcess<>(new SyncTreeClockMessageService(TreeClock.GENESIS), 10, Long.MAX_VALUE);
+            process.add(1);
+            process.checkpoint(checkpoint);
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    private static OrSet<Integer> copy(OrSet<Integer> orSet)
+    {
+        final OrSet<Integer> copy = new OrSet<>();
+        orSet.entries().forEach(copy::putEntry);
+        return copy;
+    }
+
+    private static void assertRestores(OrSet<Integer> expected, Path file, TreeClock clock) throws IOException
+    {
+        try (OrSetCheckpoint<TreeClock, Integer> checkpoint =
+                 new OrSetCheckpoint<>(file, OffHeapOrSet.Codec.INTEGER, BUCKETS))
+        {
+            final OrSet<Integer> restored = new OrSet<>();
+            checkpoint.restore(restored);
+            final Set<Integer> elements = restored.elements();
+            assertEquals(expected.elements(), elements);
+            assertEquals(expected.digest(), restored.digest());
+            assertEquals(clock, checkpoint.clock().orElseThrow(AssertionError::new));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class OrSetLogTest
+{
+    private static final int SEGMENT_RECORDS = 100, RECORD_SIZE = 1 + 2 * Long.BYTES + Integer.BYTES;
+
+    @Test
+    public void testCompactionDropsRemoved() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("orsetlog");
+        try (OrSetLog<Integer> log = new OrSetLog<>(dir, OffHeapOrSet.Codec.INTEGER, Long.MAX_VALUE, 4))
+        {
+            final OrSet<Integer> orSet = new OrSet<>();
+            for (int i = 0; i < 100; i++)
+                log.append(orSet.add(i).orElseThrow(AssertionError::new));
+            for (int i = 0; i < 100; i += 2)
+                log.append(orSet.remove(i).orElseThrow(AssertionError::new));
+
+            // Nothing is sealed until the segment is full
+            assertEquals(0, log.compact());
+            assertRebuilds(orSet, log);
+        }
+        finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void testRebuildAfterCompaction() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("orsetlog");
+        try (OrSetLog<Integer> log = new OrSetLog<>(dir, OffHeapOrSet.Codec.INTEGER,
+                                                    SEGMENT_RECORDS * RECORD_SIZE, 4))
+        {
+            final OrSet<Integer> orSet = randomOps(log, new Random(42), 5000);
+            log.compact();
+            assertEquals(1, log.segments());
+            assertFalse(log.compactionFailure().isPresent());
+            assertRebuilds(orSet, log);
+
+            // Compaction leaves only live tags, some of which may be in the active segment
+            long generationSize = 0L, activeSize = 0L;
+            try (Stream<Path> files = Files.walk(dir))
+            {
+                for (Path file : (Iterable<Path>)files.filter(Files::isRegularFile)::iterator)
+                {
+                    if (file.getFileName().toString().endsWith(".ops"))
+                        activeSize += Files.size(file);
+                    else
+                        generationSize += Files.size(file);
+                }
+            }
+            final long liveSize = orSet.entries().stream().mapToInt(e -> e.getValue().size()).sum() * RECORD_SIZE;
+            assertTrue(generationSize <= liveSize);
+            assertTrue(generationSize + activeSize >= liveSize);
+            assertTrue(activeSize < SEGMENT_RECORDS * RECORD_SIZE);
+        }
+        finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("orsetlog");
+        try
+        {
+            final OrSet<Integer> orSet;
+            final Random random = new Random(42);
+            try (OrSetLog<Integer> log = new OrSetLog<>(dir, OffHeapOrSet.Codec.INTEGER,
+                                                        SEGMENT_RECORDS * RECORD_SIZE, 4))
+            {
+                orSet = randomOps(log, random, 2000);
+            }
+            try (OrSetLog<Integer> log = new OrSetLog<>(dir, OffHeapOrSet.Codec.INTEGER,
+                                                        SEGMENT_RECORDS * RECORD_SIZE, 4))
+            {
+                assertRebuilds(orSet, log);
+                // Continue appending to the rebuilt set
+                final OrSet<Integer> rebuilt = new OrSet<>();
+                log.rebuild(rebuilt);
+                for (int i = 0; i < 1000; i++)
+                    rebuilt.add(random.nextInt(100)).ifPresent(ops -> append(log, ops));
+                log.compact();
+                assertRebuilds(rebuilt, log);
+            }
+        }
+        finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCannotRebuildDeltaState() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("orsetlog");
+        try (OrSetLog<Integer> log = new OrSetLog<>(dir, OffHeapOrSet.Codec.INTEGER, Long.MAX_VALUE, 4))
+        {
+            log.rebuild(new OrSet<>(4));
+        }
+        finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    private static OrSet<Integer> randomOps(OrSetLog<Integer> log, Random random, int count)
+    {
+        final OrSet<Integer> orSet = new OrSet<>();
+        for (int i = 0; i < count; i++)
+        {
+            final int element = random.nextInt(100);
+            (random.nextBoolean() ? orSet.add(element) : orSet.remove(element)).ifPresent(ops -> append(log, ops));
+        }
+        return orSet;
+    }
+
+    private static void append(OrSetLog<Integer> log, List<OrSet.Operation<Integer>> ops)
+    {
+        try
+        {
+            log.append(ops);
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void assertRebuilds(OrSet<Integer> expected, OrSetLog<Integer> log) throws IOException
+    {
+        final OrSet<Integer> rebuilt = new OrSet<>();
+        log.rebuild(rebuilt);
+        assertEquals(expected.elements(), rebuilt.elements());
+        assertEquals(expected.digest(), rebuilt.digest());
+    }
+
+    private static void deleteAll(Path dir) throws IOException
+    {
+        try (Stream<Path> files = Files.walk(dir))
+        {
+            for (Path file : (Iterable<Path>)files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+}
@@ -12,18 +12,29 @@ import org.m_ld.clocks.Message;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public abstract class OrSetProcessTest<C extends CausalClock<C>, P extends OrSetProcess<C, Integer>>
 {
     public abstract P createProcess();
 
+    public abstract OrSetProcess<C, Integer> createProcess(int maxBatchSize, long maxBatchMillis, int maxMessageOps);
+
+    public OrSetProcess<C, Integer> createProcess(int maxBatchSize, long maxBatchMillis)
+    {
+        return createProcess(maxBatchSize, maxBatchMillis, OrSetProcess.DEFAULT_MAX_MESSAGE_OPS);
+    }
+
     @Test
     public void testUnlinkedConvergence()
     {
@@ -45,6 +56,8 @@ public abstract class OrSetProcessTest<C extends CausalClock<C>, P extends OrSet
         assertEquals(converged, p1.elements());
         assertEquals(converged, p2.elements());
         assertEquals(converged, p3.elements());
+        assertEquals(p1.digest(), p2.digest());
+        assertEquals(p1.digest(), p3.digest());
     }
 
     @Test
@@ -67,6 +80,104 @@ public abstract class OrSetProcessTest<C extends CausalClock<C>, P extends OrSet
         assertEquals(emptySet(), p3.elements());
     }
 
+    @Test
+    public void testBatchedConvergence()
+    {
+        OrSetProcess<C, Integer> p1 = createProcess(3, Long.MAX_VALUE), p2 = createProcess();
+
+        assertFalse(p1.add(1).isPresent());
+        assertFalse(p1.add(2).isPresent());
+        assertFalse(p1.remove(1).isPresent()); // Cancels the add
+        assertFalse(p1.add(3).isPresent());
+
+        final Message<C, List<OrSet.Operation<Integer>>> m1 = p1.add(4).orElseThrow(AssertionError::new);
+        assertEquals(3, m1.data().size());
+        assertFalse(p1.flush().isPresent());
+
+        assertFalse(p1.remove(2).isPresent());
+        final Message<C, List<OrSet.Operation<Integer>>> m2 = p1.flush().orElseThrow(AssertionError::new);
+
+        p2.receive(m1);
+        p2.receive(m2);
+
+        final Set<Integer> converged = Stream.of(3, 4).collect(toSet());
+        assertEquals(converged, p1.elements());
+        assertEquals(converged, p2.elements());
+    }
+
+    @Test
+    public void testBulkConvergence()
+    {
+        OrSetProcess<C, Integer> p1 = createProcess(3, Long.MAX_VALUE), p2 = createProcess(1, 0, 8);
+
+        assertFalse(p1.add(-1).isPresent());
+        final List<Integer> elements = IntStream.range(0, 25).boxed().collect(toList());
+        final List<Optional<Message<C, List<OrSet.Operation<Integer>>>>> added = p1.addAll(elements);
+        assertEquals(1, added.size());
+        assertEquals(26, added.get(0).orElseThrow(AssertionError::new).data().size());
+        added.forEach(m -> p2.receive(m.orElseThrow(AssertionError::new)));
+        assertEquals(p1.elements(), p2.elements());
+
+        final List<Optional<Message<C, List<OrSet.Operation<Integer>>>>> removed =
+            createProcess(1, 0, 8).removeAll(elements); // Nothing to remove
+        assertTrue(removed.isEmpty());
+        final List<Optional<Message<C, List<OrSet.Operation<Integer>>>>> chunks =
+            p2.removeAll(elements.subList(0, 20));
+        assertEquals(3, chunks.size());
+        chunks.forEach(m -> p1.receive(m.orElseThrow(AssertionError::new)));
+        assertEquals(6, p1.elements().size());
+        assertEquals(p1.elements(), p2.elements());
+    }
+
+    @Test
+    public void testChangeFeed()
+    {
+        P p1 = createProcess(), p2 = createProcess();
+        final Message<C, List<OrSet.Operation<Integer>>> m1 = p1.add(1).orElseThrow(AssertionError::new);
+        p2.receive(m1);
+
+        final List<SetChange<C, Integer>> received = new ArrayList<>();
+        final SetChangeFeed.Subscription[] subscription = new SetChangeFeed.Subscription[1];
+        p2.subscribe(new SetChangeFeed.Subscriber<C, Integer>()
+        {
+            @Override public void onSubscribe(SetChangeFeed.Subscription s)
+            {
+                subscription[0] = s;
+            }
+
+            @Override public void onNext(SetChange<C, Integer> change)
+            {
+                received.add(change);
+            }
+        });
+        assertTrue(received.isEmpty());
+        subscription[0].request(1);
+        assertEquals(singleton(1), received.get(0).added());
+
+        // Changes without demand are combined
+        p2.receive(p1.add(2).orElseThrow(AssertionError::new));
+        p2.receive(p1.add(3).orElseThrow(AssertionError::new));
+        p2.receive(p1.remove(2).orElseThrow(AssertionError::new));
+        p2.remove(1);
+        assertEquals(1, received.size());
+        subscription[0].request(2);
+        assertEquals(2, received.size());
+        assertEquals(singleton(3), received.get(1).added());
+        assertEquals(singleton(1), received.get(1).removed());
+
+        // Remote change carries the clock at which it became visible
+        final Message<C, List<OrSet.Operation<Integer>>> m5 = p1.add(5).orElseThrow(AssertionError::new);
+        p2.receive(m5);
+        assertEquals(3, received.size());
+        assertEquals(singleton(5), received.get(2).added());
+        assertTrue(received.get(2).time().hasSeen(m5.time()));
+
+        subscription[0].cancel();
+        subscription[0].request(1);
+        p2.remove(5);
+        assertEquals(3, received.size());
+    }
+
     @Test
     public void testPandemonium() throws InterruptedException
     {
@@ -102,6 +213,7 @@ public abstract class OrSetProcessTest<C extends CausalClock<C>, P extends OrSet
 
         assertNotNull(processes.stream().reduce((p1, p2) -> {
             assertEquals(p1.elements(), p2.elements());
+            assertEquals(p1.digest(), p2.digest());
             return p2;
         }));
     }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static java.util.Collections.singleton;
+import static org.junit.Assert.*;
+
+public class OrSetTest
+{
+    @Test
+    public void testDigest()
+    {
+        final OrSet<Integer> s1 = new OrSet<>(), s2 = new OrSet<>();
+        assertEquals(0L, s1.digest());
+
+        final List<OrSet.Operation<Integer>> added1 = s1.add(1).orElseThrow(AssertionError::new);
+        final List<OrSet.Operation<Integer>> added2 = s1.add(2).orElseThrow(AssertionError::new);
+        assertNotEquals(0L, s1.digest());
+
+        s2.apply(added2);
+        assertNotEquals(s1.digest(), s2.digest());
+        s2.apply(added1);
+        assertEquals(s1.digest(), s2.digest());
+
+        s1.remove(1).ifPresent(s2::apply);
+        s1.remove(2).ifPresent(s2::apply);
+        assertEquals(0L, s1.digest());
+        assertEquals(0L, s2.digest());
+    }
+
+    @Test
+    public void testBulk()
+    {
+        final OrSet<Integer> s1 = new OrSet<>(), s2 = new OrSet<>();
+        s1.add(1);
+        final List<Optional<List<OrSet.Operation<Integer>>>> added = s1.addAll(Arrays.asList(1, 2, 3, 3));
+        assertEquals(1, added.size());
+        assertEquals(2, added.get(0).orElseThrow(AssertionError::new).size());
+        assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), s1.elements());
+        assertTrue(s1.addAll(Arrays.asList(1, 2)).isEmpty());
+
+        s2.apply(added.get(0).orElseThrow(AssertionError::new));
+        final List<Optional<List<OrSet.Operation<Integer>>>> removed = s2.removeAll(Arrays.asList(2, 3, 4));
+        assertTrue(s2.elements().isEmpty());
+        assertEquals(1, s1.removeAll(Arrays.asList(2, 3, 4)).size());
+        assertEquals(singleton(1), s1.elements());
+        assertEquals(2, removed.get(0).orElseThrow(AssertionError::new).size());
+    }
+
+    @Test
+    public void testDeltaIsIdempotent()
+    {
+        final OrSet<Integer> s1 = new OrSet<>(4), s2 = new OrSet<>(4);
+        final List<OrSet.Operation<Integer>> added = s1.add(1).orElseThrow(AssertionError::new);
+        final List<OrSet.Operation<Integer>> removed = s1.remove(1).orElseThrow(AssertionError::new);
+
+        assertFalse(s2.apply(removed));
+        assertFalse(s2.apply(added)); // Tag has been removed
+        assertTrue(s2.elements().isEmpty());
+        assertArrayEquals(s1.digests(OrSet.ROOT), s2.digests(OrSet.ROOT));
+    }
+
+    @Test
+    public void testAntiEntropySync()
+    {
+        final OrSet<Integer> s1 = new OrSet<>(6), s2 = new OrSet<>(6);
+        IntStream.range(0, 1000).forEach(i -> s2.apply(s1.add(i).orElseThrow(AssertionError::new)));
+        assertArrayEquals(s1.digests(OrSet.ROOT), s2.digests(OrSet.ROOT));
+
+        s1.add(1000);
+        s1.remove(1);
+        s2.remove(2);
+
+        int[] nodes = { OrSet.ROOT };
+        while ((nodes = s1.differing(nodes, s2.digests(nodes))).length > 0 && !s1.isBucket(nodes[0]))
+            nodes = OrSet.children(nodes);
+        assertTrue(nodes.length <= 3);
+
+        final List<OrSet.Operation<Integer>> delta1 = s1.delta(nodes), delta2 = s2.delta(nodes);
+        assertTrue(delta1.size() < 100);
+        assertTrue(delta2.size() < 100);
+        s2.apply(delta1);
+        s1.apply(delta2);
+
+        assertEquals(s1.elements(), s2.elements());
+        assertEquals(999, s1.elements().size());
+        assertArrayEquals(s1.digests(OrSet.ROOT), s2.digests(OrSet.ROOT));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.junit.Test;
+import org.m_ld.clocks.Message;
+import org.m_ld.clocks.tree.TreeClock;
+import org.m_ld.clocks.tree.TreeClockMessageService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SnapshotCoordinatorTest
+{
+    private TreeClock previous = TreeClock.GENESIS;
+
+    @Test
+    public void testConsistentCut()
+    {
+        final MvccOrSetProcess<TreeClock, Integer> p1 = createProcess(), p2 = createProcess(), p3 = createProcess();
+        final Map<String, MvccOrSetProcess<TreeClock, Integer>> replicas = new HashMap<>();
+        replicas.put("p1", p1);
+        replicas.put("p2", p2);
+        replicas.put("p3", p3);
+        final SnapshotCoordinator<String, TreeClock, Integer> coordinator = new SnapshotCoordinator<>(replicas);
+
+        final Message<TreeClock, List<OrSet.Operation<Integer>>> m1 = p1.add(1).orElseThrow(AssertionError::new);
+        p2.receive(m1);
+        final Message<TreeClock, List<OrSet.Operation<Integer>>> m2 = p2.add(2).orElseThrow(AssertionError::new);
+        final TreeClock cut = m2.time();
+
+        // Updates after the cut, which must not appear in the snapshot
+        p1.add(3);
+        p3.receive(m1);
+        p3.receive(m2);
+        p1.receive(m2);
+        p2.remove(1);
+
+        try (SnapshotCoordinator.GlobalSnapshot<String, TreeClock, Integer> snapshot = coordinator.snapshot(cut))
+        {
+            assertEquals(cut, snapshot.cut());
+            assertEquals(singleton(1), elements(snapshot.replicas().get("p1")));
+            assertEquals(Stream.of(1, 2).collect(toSet()), elements(snapshot.replicas().get("p2")));
+            assertEquals(emptySet(), elements(snapshot.replicas().get("p3")));
+        }
+        assertEquals(singleton(2), p2.elements());
+    }
+
+    @Test
+    public void testInitiatedSnapshot()
+    {
+        final MvccOrSetProcess<TreeClock, Integer> p1 = createProcess(), p2 = createProcess();
+        final Map<String, MvccOrSetProcess<TreeClock, Integer>> replicas = new HashMap<>();
+        replicas.put("p1", p1);
+        replicas.put("p2", p2);
+        final SnapshotCoordinator<String, TreeClock, Integer> coordinator = new SnapshotCoordinator<>(replicas);
+
+        p2.receive(p1.add(1).orElseThrow(AssertionError::new));
+        p2.add(2);
+        try (SnapshotCoordinator.GlobalSnapshot<String, TreeClock, Integer> snapshot = coordinator.snapshot("p1"))
+        {
+            assertEquals(singleton(1), elements(snapshot.replicas().get("p1")));
+            // The delivery of p1's add at p2 is not in p1's causal past
+            assertEquals(emptySet(), elements(snapshot.replicas().get("p2")));
+        }
+        // A cut that is no longer retained
+        for (int i = 0; i < 10; i++)
+            p2.add(i);
+        try
+        {
+            coordinator.snapshot(TreeClock.GENESIS).close();
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected
+        }
+    }
+
+    private static Set<Integer> elements(MvccOrSet<TreeClock, Integer>.Snapshot snapshot)
+    {
+        return snapshot.stream().collect(toSet());
+    }
+
+    private MvccOrSetProcess<TreeClock, Integer> createProcess()
+    {
+        final TreeClock.Fork fork = previous.fork();
+        previous = fork.left;
+        return new MvccOrSetProcess<>(new TreeClockMessageService(fork.right), 8);
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.example;
+
+import org.m_ld.clocks.tree.SyncTreeClockMessageService;
+import org.m_ld.clocks.tree.TreeClock;
+
+public class SyncTreeClockOrSetProcessTest extends OrSetProcessTest<TreeClock, OrSetProcess<TreeClock, Integer>>
+{
+    private TreeClock previous = TreeClock.GENESIS;
+
+    public OrSetProcess<TreeClock, Integer> createProcess()
+    {
+        return new OrSetProcess<>(createMessageService());
+    }
+
+    public OrSetProcess<TreeClock, Integer> createProcess(int maxBatchSize, long maxBatchMillis, int maxMessageOps)
+    {
+        return new OrSetProcess<>(createMessageService(), maxBatchSize, maxBatchMillis, maxMessageOps);
+    }
+
+    private SyncTreeClockMessageService createMessageService()
+    {
+        final TreeClock.Fork fork = previous.fork();
+        previous = fork.left;
+        return new SyncTreeClockMessageService(fork.right);
+    }
+}
@@ -13,9 +13,19 @@ public class TreeClockOrSetProcessTest extends OrSetProcessTest<TreeClock, OrSet
     private TreeClock previous = TreeClock.GENESIS;
 
     public OrSetProcess<TreeClock, Integer> createProcess()
+    {
+        return new OrSetProcess<>(createMessageService());
+    }
+
+    public OrSetProcess<TreeClock, Integer> createProcess(int maxBatchSize, long maxBatchMillis, int maxMessageOps)
+    {
+        return new OrSetProcess<>(createMessageService(), maxBatchSize, maxBatchMillis, maxMessageOps);
+    }
+
+    private TreeClockMessageService createMessageService()
     {
         final TreeClock.Fork fork = previous.fork();
         previous = fork.left;
-        return new OrSetProcess<>(new TreeClockMessageService(fork.right));
+        return new TreeClockMessageService(fork.right);
     }
 }
@@ -17,4 +17,11 @@ public class VectorClockOrSetProcessTest extends
     {
         return new OrSetProcess<>(new SyncVectorClockMessageService<>(UUID::randomUUID));
     }
+
+    public OrSetProcess<VectorClock<UUID>, Integer> createProcess(
+        int maxBatchSize, long maxBatchMillis, int maxMessageOps)
+    {
+        return new OrSetProcess<>(new SyncVectorClockMessageService<>(UUID::randomUUID),
+                                  maxBatchSize, maxBatchMillis, maxMessageOps);
+    }
 }
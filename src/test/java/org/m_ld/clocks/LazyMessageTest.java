@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+import org.junit.Test;
+import org.m_ld.clocks.vector.SyncVectorClockMessageService;
+import org.m_ld.clocks.vector.VectorClock;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+import static org.m_ld.clocks.vector.WireVectorClock.clock;
+
+public class LazyMessageTest
+{
+    @Test
+    public void testDecodedOnlyOnDelivery()
+    {
+        final MessageService<VectorClock<String>> p1Clock = new SyncVectorClockMessageService<>(() -> "P1");
+        final List<Integer> data = new ArrayList<>();
+        final LinkedList<LazyMessage<VectorClock<String>, Integer>> buffer = new LinkedList<>();
+
+        final LazyMessage<VectorClock<String>, Integer> m2 = new LazyMessage<>(
+            clock("P2", 1L).with("P3", 1L), encode(2), ByteBuffer::getInt);
+        p1Clock.receive(m2, buffer, data::add);
+        assertFalse(m2.isDecoded());
+        assertEquals(4, m2.payload().remaining());
+
+        final LazyMessage<VectorClock<String>, Integer> m1 = new LazyMessage<>(
+            clock("P3", 1L), encode(1), ByteBuffer::getInt);
+        p1Clock.receive(m1, buffer, data::add);
+        assertTrue(m1.isDecoded());
+        assertTrue(m2.isDecoded());
+        assertEquals(asList(1, 2), data);
+    }
+
+    private static ByteBuffer encode(int value)
+    {
+        return (ByteBuffer)ByteBuffer.allocate(4).putInt(value).flip();
+    }
+}
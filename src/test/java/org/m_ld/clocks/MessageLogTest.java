@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+import org.junit.Test;
+import org.m_ld.clocks.tree.TreeClock;
+import org.m_ld.clocks.vector.VectorClock;
+import org.m_ld.clocks.vector.WireVectorClock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.m_ld.clocks.vector.WireVectorClock.clock;
+
+public class MessageLogTest
+{
+    @Test
+    public void testMissingMessages() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("log");
+        try (MessageLog<VectorClock<String>> log =
+                 new MessageLog<>(dir, 1024, VectorClock::hasSeen, VectorClock::processId))
+        {
+            append(log, clock("P1", 1L), "a");
+            append(log, clock("P2", 1L).with("P1", 1L), "b");
+            append(log, clock("P1", 2L).with("P2", 1L), "c");
+
+            final WireVectorClock<String> peer = clock("P3", 0L).with("P1", 1L);
+            final List<String> missing = new ArrayList<>();
+            log.forEachMissing(peer, wire -> missing.add(StandardCharsets.UTF_8.decode(wire).toString()));
+            assertEquals(asList("b", "c"), missing);
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(10L, log.transferMissing(peer, Channels.newChannel(out)));
+            final ByteBuffer frames = ByteBuffer.wrap(out.toByteArray());
+            assertEquals(1, frames.getInt());
+            assertEquals('b', frames.get());
+            assertEquals(1, frames.getInt());
+            assertEquals('c', frames.get());
+        }
+        finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void testRetention() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("log");
+        try (MessageLog<VectorClock<String>> log =
+                 new MessageLog<>(dir, 1, VectorClock::hasSeen, VectorClock::processId))
+        {
+            for (long tick = 1; tick <= 5; tick++)
+                append(log, clock("P1", tick), Long.toString(tick));
+
+            assertEquals(0, log.retain(asList(clock("P2", 0L).with("P1", 3L), clock("P3", 0L))));
+            assertEquals(2, log.retain(asList(clock("P2", 0L).with("P1", 3L), clock("P3", 0L).with("P1", 2L))));
+            assertEquals(3, log.size());
+            assertEquals(3, log.retain(singleton(clock("P2", 0L).with("P1", 5L))));
+            assertEquals(0, log.size());
+        }
+        finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException
+    {
+        final Path dir = Files.createTempDirectory("log");
+        try
+        {
+            final TreeClock.Fork fork = TreeClock.GENESIS.fork();
+            final TreeClock p1 = fork.left.tick(), p2 = fork.right.update(p1).tick();
+            try (MessageLog<TreeClock> log = new MessageLog<>(dir, 1024, TreeClock::hasSeen, TreeClock::identity))
+            {
+                log.append(p1, StandardCharsets.UTF_8.encode("a"));
+                log.append(p2, StandardCharsets.UTF_8.encode("b"));
+            }
+            // A partly-written trailing message is discarded
+            try (FileChannel segment = FileChannel.open(dir.resolve(String.format("%016x.log", 0)), WRITE, APPEND))
+            {
+                segment.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, 10));
+            }
+            try (MessageLog<TreeClock> log = new MessageLog<>(dir, 1024, TreeClock::hasSeen, TreeClock::identity))
+            {
+                assertEquals(2, log.size());
+                log.append(p1.tick(), StandardCharsets.UTF_8.encode("c"));
+                final List<String> missing = new ArrayList<>();
+                log.forEachMissing(fork.right, wire -> missing.add(StandardCharsets.UTF_8.decode(wire).toString()));
+                assertEquals(asList("a", "b", "c"), missing);
+                missing.clear();
+                log.forEachMissing(p2, wire -> missing.add(StandardCharsets.UTF_8.decode(wire).toString()));
+                assertEquals(singletonList("c"), missing);
+                assertEquals(5L, log.transferMissing(p2, Channels.newChannel(new ByteArrayOutputStream())));
+            }
+        }
+        finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    private static void deleteAll(Path dir) throws IOException
+    {
+        try (Stream<Path> files = Files.walk(dir))
+        {
+            for (Path file : (Iterable<Path>)files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+
+    private static void append(MessageLog<VectorClock<String>> log, VectorClock<String> time, String data)
+        throws IOException
+    {
+        log.append(time, StandardCharsets.UTF_8.encode(data));
+    }
+}
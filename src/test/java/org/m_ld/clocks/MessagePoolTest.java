@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+import org.junit.Test;
+import org.m_ld.clocks.tree.TreeClock;
+import org.m_ld.clocks.tree.TreeClockMessageService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessagePoolTest
+{
+    @Test
+    public void testReuse()
+    {
+        final MessagePool<TreeClock, String> pool = new MessagePool<>(1);
+        final PooledMessage<TreeClock, String> message = pool.acquire(TreeClock.GENESIS, "hello");
+        assertEquals("hello", message.data());
+        message.release();
+        assertEquals(1, pool.available());
+        assertSame(message, pool.acquire(TreeClock.GENESIS, "world"));
+        assertEquals("world", message.data());
+        assertEquals(0, pool.available());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDoubleRelease()
+    {
+        final PooledMessage<TreeClock, String> message = new MessagePool<TreeClock, String>(1)
+            .acquire(TreeClock.GENESIS, "hello");
+        message.release();
+        message.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUseAfterRelease()
+    {
+        final PooledMessage<TreeClock, String> message = new MessagePool<TreeClock, String>(1)
+            .acquire(TreeClock.GENESIS, "hello");
+        message.release();
+        message.time();
+    }
+
+    @Test
+    public void testTargetReceive()
+    {
+        final TreeClock.Fork fork1 = TreeClock.GENESIS.fork(), fork2 = fork1.right.fork();
+        final TreeClockMessageService a = new TreeClockMessageService(fork1.left),
+            b = new TreeClockMessageService(fork2.left), c = new TreeClockMessageService(fork2.right);
+        final MessagePool<TreeClock, String> pool = new MessagePool<>(2);
+        final List<String> delivered = new ArrayList<>();
+        final ArrayDeque<PooledMessage<TreeClock, String>> buffer = new ArrayDeque<>();
+
+        final PooledMessage<TreeClock, String> m1 = pool.acquire(a.send(), "1");
+        b.join(m1.time());
+        final PooledMessage<TreeClock, String> m2 = pool.acquire(b.send(), "2");
+        assertTrue(c.receive(m2, buffer, delivered, List::add));
+        assertTrue(delivered.isEmpty());
+        assertTrue(c.receive(m1, buffer, delivered, List::add));
+        assertEquals(2, delivered.size());
+        assertEquals("2", delivered.get(1));
+        assertTrue(buffer.isEmpty());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks;
+
+import org.junit.Test;
+import org.m_ld.clocks.tree.TreeClock;
+import org.m_ld.clocks.tree.TreeClockMessageService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.m_ld.clocks.Message.message;
+
+public class ReceivePipelineTest
+{
+    @Test
+    public void testCausalDelivery() throws InterruptedException
+    {
+        final TreeClock.Fork fork = TreeClock.GENESIS.fork();
+        final TreeClockMessageService sender = new TreeClockMessageService(fork.left);
+        final TreeClockMessageService relay = new TreeClockMessageService(sender.fork());
+        final LinkedList<Message<TreeClock, Integer>> relayBuffer = new LinkedList<>();
+
+        // Every odd message is caused by the sender's previous even message, via the relay
+        final List<String> wires = new ArrayList<>();
+        for (int i = 0; i < 1000; i += 2)
+        {
+            final Message<TreeClock, Integer> sent = message(sender.send(), i);
+            relay.receive(sent, relayBuffer, data -> {});
+            wires.add(encode(sent));
+            wires.add(encode(message(relay.send(), i + 1)));
+        }
+        // Deliver each pair in the wrong order
+        for (int i = 0; i < wires.size(); i += 2)
+            Collections.swap(wires, i, i + 1);
+
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        final List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(wires.size());
+        try (ReceivePipeline<TreeClock, String, Integer> pipeline = new ReceivePipeline<>(
+            new TreeClockMessageService(fork.right), ReceivePipelineTest::decode,
+            data -> { received.add(data); done.countDown(); }, errors::add, 16, 3))
+        {
+            wires.forEach(pipeline::receive);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+        assertTrue(errors.isEmpty());
+        for (int i = 0; i < received.size(); i += 2)
+            assertEquals(received.get(i) + 1, (int)received.get(i + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRingSizeTooLarge()
+    {
+        new ReceivePipeline<TreeClock, String, Integer>(
+            new TreeClockMessageService(TreeClock.GENESIS), ReceivePipelineTest::decode,
+            data -> {}, e -> {}, (1 << 30) + 1, 1);
+    }
+
+    private static final List<Message<TreeClock, Integer>> wireMessages = new ArrayList<>();
+
+    private static synchronized String encode(Message<TreeClock, Integer> message)
+    {
+        wireMessages.add(message);
+        return Integer.toString(wireMessages.size() - 1);
+    }
+
+    private static synchronized Message<TreeClock, Integer> decode(String wire)
+    {
+        return wireMessages.get(Integer.parseInt(wire));
+    }
+}
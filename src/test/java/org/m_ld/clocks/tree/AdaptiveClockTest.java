@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.tree;
+
+import org.junit.Test;
+import org.m_ld.clocks.tree.AdaptiveClock.Layout;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveClockTest
+{
+    @Test
+    public void testSameAsTree()
+    {
+        final Random random = new Random(42);
+        final List<TreeClock> trees = new ArrayList<>();
+        final List<AdaptiveClock> clocks = new ArrayList<>();
+        trees.add(TreeClock.GENESIS);
+        clocks.add(AdaptiveClock.GENESIS);
+        for (int step = 0; step < 5000; step++)
+        {
+            final int p = random.nextInt(trees.size()), q = random.nextInt(trees.size());
+            final int action = random.nextInt(20);
+            if (action == 0 && trees.size() < 8)
+            {
+                final TreeClock.Fork fork = trees.get(p).fork();
+                trees.set(p, fork.left);
+                trees.add(fork.right);
+                clocks.set(p, clocks.get(p).with(fork.left));
+                clocks.add(clocks.get(p).with(fork.right));
+            }
+            else if (action < 6)
+            {
+                trees.set(p, trees.get(p).tick());
+                clocks.set(p, clocks.get(p).tick());
+            }
+            else if (action < 8)
+            {
+                // Switch layout, sometimes
+                final AdaptiveClock clock = clocks.get(p);
+                clocks.set(p, clock.switchTo(Layout.values()[random.nextInt(2)], clock.epoch() + 1));
+            }
+            else if (p != q)
+            {
+                final AdaptiveClock clock = clocks.get(p), other = clocks.get(q);
+                final TreeClock tree = trees.get(p), otherTree = trees.get(q);
+                assertEquals(tree.anyLt(otherTree), clock.anyLt(other));
+                assertEquals(tree.hasSeen(otherTree), clock.hasSeen(other));
+                assertEquals(tree.compare(otherTree), clock.compare(other));
+                trees.set(p, tree.update(otherTree));
+                clocks.set(p, clock.update(other));
+                assertTrue(clocks.get(p).epoch() >= other.epoch());
+            }
+            assertEquals(trees.get(p), clocks.get(p).tree());
+            assertEquals(clocks.get(p), roundTrip(clocks.get(p)));
+        }
+    }
+
+    @Test
+    public void testEncoding()
+    {
+        AdaptiveClock clock = AdaptiveClock.GENESIS;
+        for (int i = 0; i < 1000; i++)
+            clock = clock.tick();
+        final AdaptiveClock vector = clock.switchTo(Layout.VECTOR, 1);
+        final AdaptiveClock decoded = roundTrip(vector);
+        assertEquals(Layout.VECTOR, decoded.layout());
+        assertEquals(1, decoded.epoch());
+        assertEquals(clock, decoded);
+        assertEquals(1, clock.groupSize());
+    }
+
+    @Test
+    public void testServiceSwitchesLayout()
+    {
+        final AdaptiveClockMessageService s1 = new AdaptiveClockMessageService(AdaptiveClock.GENESIS, 16, 0);
+        final AdaptiveClockMessageService s2 = new AdaptiveClockMessageService(s1.fork(), 16, 0);
+        final AdaptiveClockMessageService s3 = new AdaptiveClockMessageService(s1.fork(), 16, 0);
+        assertEquals(2, s1.forkChurn());
+        // A stable group with many ticks prefers fixed-width ticks
+        for (int i = 0; i < 20_000; i++)
+        {
+            s2.join(s1.send());
+            s3.join(s2.send());
+            s1.join(s3.send());
+        }
+        assertEquals(Layout.VECTOR, s1.peek().layout());
+        assertEquals(Layout.VECTOR, s2.peek().layout());
+        assertEquals(3, s1.peek().groupSize());
+        assertTrue(s1.peek().encodedSize() < s1.peek().encodedSize(Layout.TREE));
+
+        // Fork churn prefers the tree layout
+        final long epoch = s1.peek().epoch();
+        for (int i = 0; i < 16; i++)
+        {
+            s1.fork();
+            s1.event();
+        }
+        assertEquals(Layout.TREE, s1.peek().layout());
+        assertTrue(s1.peek().epoch() > epoch);
+        // Peers adopt the switch
+        s2.join(s1.send());
+        assertEquals(Layout.TREE, s2.peek().layout());
+    }
+
+    private static AdaptiveClock roundTrip(AdaptiveClock clock)
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(clock.encodedSize());
+        clock.encode(buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        final AdaptiveClock decoded = AdaptiveClock.decode(buffer);
+        assertEquals(clock.layout(), decoded.layout());
+        return decoded;
+    }
+}
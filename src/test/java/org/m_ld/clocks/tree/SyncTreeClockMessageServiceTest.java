@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.tree;
+
+import org.junit.Test;
+import org.m_ld.clocks.Message;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.m_ld.clocks.Message.message;
+
+public class SyncTreeClockMessageServiceTest
+{
+    /**
+     * A process with both kinds of message service, which should behave identically
+     */
+    private static class Process
+    {
+        final TreeClockMessageService reference;
+        final SyncTreeClockMessageService sync;
+        final Map<Process, Queue<Message<TreeClock, Integer>>> inbound = new HashMap<>();
+        final LinkedList<Message<TreeClock, Integer>>
+            referenceBuffer = new LinkedList<>(), syncBuffer = new LinkedList<>();
+        final List<Integer> referenceDelivered = new ArrayList<>(), syncDelivered = new ArrayList<>();
+
+        Process(TreeClock time)
+        {
+            reference = new TreeClockMessageService(time);
+            sync = new SyncTreeClockMessageService(time);
+        }
+    }
+
+    @Test
+    public void testSnapshotIsShared()
+    {
+        final SyncTreeClockMessageService service = new SyncTreeClockMessageService(TreeClock.GENESIS.fork().left);
+        final TreeClock time = service.peek();
+        assertSame(time, service.peek());
+        service.event();
+        assertNotEquals(time, service.peek());
+        assertEquals(time.tick(), service.peek());
+    }
+
+    @Test
+    public void testSameAsImmutable()
+    {
+        final Random random = new Random(42);
+        final List<Process> processes = new ArrayList<>();
+        processes.add(new Process(TreeClock.GENESIS));
+        int data = 0;
+        for (int step = 0; step < 5000; step++)
+        {
+            final Process process = processes.get(random.nextInt(processes.size()));
+            final int action = random.nextInt(20);
+            if (action == 0 && processes.size() < 6)
+            {
+                final TreeClock forked = process.reference.fork();
+                assertEquals(forked, process.sync.fork());
+                processes.add(new Process(forked));
+            }
+            else if (action < 8)
+            {
+                final TreeClock time = process.reference.send();
+                assertEquals(time, process.sync.send());
+                final Message<TreeClock, Integer> message = message(time, data++);
+                for (Process other : processes)
+                    if (other != process)
+                        other.inbound.computeIfAbsent(process, p -> new LinkedList<>()).add(message);
+            }
+            else
+            {
+                // Receive from a random sender, in FIFO order, sometimes duplicating
+                final List<Queue<Message<TreeClock, Integer>>> channels = new ArrayList<>();
+                process.inbound.values().forEach(channel -> {
+                    if (!channel.isEmpty())
+                        channels.add(channel);
+                });
+                if (!channels.isEmpty())
+                {
+                    final Queue<Message<TreeClock, Integer>> channel = channels.get(random.nextInt(channels.size()));
+                    final Message<TreeClock, Integer> message = action == 19 ? channel.peek() : channel.poll();
+                    assertTrue(process.reference.receive(
+                        message, process.referenceBuffer, process.referenceDelivered::add));
+                    assertTrue(process.sync.receive(message, process.syncBuffer, process.syncDelivered::add));
+                }
+            }
+            assertEquals(process.reference.peek(), process.sync.peek());
+            assertEquals(process.referenceDelivered, process.syncDelivered);
+            assertEquals(process.referenceBuffer.size(), process.syncBuffer.size());
+        }
+        assertTrue(processes.stream().mapToInt(p -> p.syncDelivered.size()).sum() > 1000);
+    }
+}
@@ -6,8 +6,12 @@
 package org.m_ld.clocks.tree;
 
 import org.junit.Test;
+import org.m_ld.clocks.Gap;
+
+import java.util.List;
 
 import static org.junit.Assert.*;
+import static org.m_ld.clocks.CausalOrder.*;
 
 public class TreeClockTest
 {
@@ -144,6 +148,80 @@ public class TreeClockTest
         assertEquals(2L, (long) updatedLeft.ticks(false));
     }
 
+    @Test
+    public void testHasSeen()
+    {
+        final TreeClock.Fork fork = TreeClock.GENESIS.fork();
+        final TreeClock left = fork.left.tick(), right = fork.right.tick().tick();
+        assertTrue(left.hasSeen(left));
+        assertFalse(right.hasSeen(left));
+        assertTrue(right.update(left).hasSeen(left));
+        assertFalse(right.update(left).hasSeen(left.tick()));
+    }
+
+    @Test
+    public void testHasSeenFork()
+    {
+        final TreeClock ticked = TreeClock.GENESIS.tick();
+        final TreeClock.Fork fork = ticked.fork();
+        assertTrue(fork.right.hasSeen(ticked));
+        assertFalse(fork.right.hasSeen(fork.left.tick()));
+        assertTrue(fork.right.update(fork.left.tick()).hasSeen(fork.left.tick()));
+    }
+
+    @Test
+    public void testMissing()
+    {
+        final TreeClock.Fork fork1 = TreeClock.GENESIS.fork();
+        final TreeClock.Fork fork2 = fork1.right.fork();
+        final TreeClock clock1 = fork1.left, clock2 = fork2.left, clock3 = fork2.right.tick().tick();
+
+        assertTrue(clock1.missing(clock2).isEmpty());
+        final TreeClock clock2Updated = clock2.update(clock3).tick();
+        final List<Gap<TreeClock>> gaps = clock1.missing(clock2Updated);
+        assertEquals(1, gaps.size());
+        assertEquals(0L, gaps.get(0).after);
+        assertEquals(2L, gaps.get(0).upTo);
+        assertTrue(clock3.hasSeen(clock3));
+        assertEquals(2L, clock3.ticksOf(gaps.get(0).process));
+        assertTrue(clock1.update(clock3).missing(clock2Updated).isEmpty());
+    }
+
+    @Test
+    public void testMissingAfterTicksBeforeFork()
+    {
+        // Ticks on the path to the gap must be included in its bounds
+        final TreeClock.Fork fork1 = TreeClock.GENESIS.tick().tick().fork();
+        final TreeClock.Fork fork2 = fork1.right.tick().fork();
+        final TreeClock clock1 = fork1.left.update(fork2.left), clock3 = fork2.right.tick().tick();
+        final TreeClock clock2Updated = fork2.left.update(clock3).tick();
+
+        final List<Gap<TreeClock>> gaps = clock1.missing(clock2Updated);
+        assertEquals(1, gaps.size());
+        assertEquals(clock1.ticksOf(gaps.get(0).process), gaps.get(0).after);
+        assertEquals(clock2Updated.ticksOf(gaps.get(0).process), gaps.get(0).upTo);
+        assertEquals(3L, gaps.get(0).after);
+        assertEquals(5L, gaps.get(0).upTo);
+        assertEquals(clock3.ticks(), gaps.get(0).upTo);
+        assertTrue(clock1.update(clock3).missing(clock2Updated).isEmpty());
+    }
+
+    @Test
+    public void testCompare()
+    {
+        final TreeClock.Fork fork = TreeClock.GENESIS.tick().fork();
+        final TreeClock left = fork.left.tick(), right = fork.right.tick();
+
+        assertEquals(EQUAL, fork.left.compare(fork.right));
+        assertEquals(EQUAL, fork.left.compare(TreeClock.GENESIS.tick()));
+        assertEquals(BEFORE, fork.left.compare(left));
+        assertEquals(AFTER, left.compare(fork.right));
+        assertEquals(CONCURRENT, left.compare(right));
+        assertEquals(BEFORE, left.compare(right.update(left)));
+        assertEquals(BEFORE, TreeClock.GENESIS.compare(left.fork().right.tick()));
+        assertEquals(AFTER, right.update(left).compare(right));
+    }
+
     @Test
     public void testNoOpMerge()
     {
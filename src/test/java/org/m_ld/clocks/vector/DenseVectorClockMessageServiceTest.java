@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.vector;
+
+import org.junit.Test;
+import org.m_ld.clocks.Message;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+import static org.m_ld.clocks.Message.message;
+import static org.m_ld.clocks.vector.DenseVectorClock.clock;
+
+public class DenseVectorClockMessageServiceTest
+{
+    @Test
+    public void testSendTicksCopy()
+    {
+        final DenseVectorClockMessageService service = new DenseVectorClockMessageService(clock(1, 3), () -> 3);
+        final DenseVectorClock sent = service.send();
+        assertEquals(clock(1, new long[]{ 0, 1, 0 }), sent);
+        service.event();
+        // The sent clock is not affected by later events
+        assertEquals(1, sent.ticks(1));
+        assertEquals(2, service.peek().ticks(1));
+    }
+
+    @Test
+    public void testCausalDelivery()
+    {
+        final DenseVectorClockMessageService p1 = new DenseVectorClockMessageService(clock(0, 3), () -> 3);
+        final DenseVectorClockMessageService p2 = new DenseVectorClockMessageService(clock(1, 3), () -> 3);
+        final DenseVectorClockMessageService p3 = new DenseVectorClockMessageService(clock(2, 3), () -> 3);
+        final List<String> p2Received = new ArrayList<>(), p3Received = new ArrayList<>();
+        final LinkedList<Message<DenseVectorClock, String>> p2Buffer = new LinkedList<>();
+        final LinkedList<Message<DenseVectorClock, String>> p3Buffer = new LinkedList<>();
+
+        final Message<DenseVectorClock, String> first = message(p1.send(), "1");
+        p2.receive(first, p2Buffer, p2Received::add);
+        final Message<DenseVectorClock, String> second = message(p2.send(), "2");
+
+        // p3 receives the second message before its cause
+        p3.receive(second, p3Buffer, p3Received::add);
+        assertTrue(p3Received.isEmpty());
+        assertEquals(1, p3Buffer.size());
+        p3.receive(first, p3Buffer, p3Received::add);
+        assertEquals(asList("1", "2"), p3Received);
+        assertTrue(p3Buffer.isEmpty());
+        assertEquals(clock(2, new long[]{ 1, 2, 2 }), p3.peek());
+
+        // Duplicates are ignored
+        p3.receive(first, p3Buffer, p3Received::add);
+        assertEquals(2, p3Received.size());
+    }
+
+    @Test
+    public void testFork()
+    {
+        final AtomicInteger nextIndex = new AtomicInteger(1);
+        final DenseVectorClockMessageService p1 =
+            new DenseVectorClockMessageService(clock(0, 1), nextIndex::getAndIncrement);
+        final List<String> p1Received = new ArrayList<>();
+        final DenseVectorClockMessageService p2 =
+            new DenseVectorClockMessageService(p1.fork(), nextIndex::getAndIncrement);
+        assertEquals(1, p2.peek().processIndex());
+        p1.receive(message(p2.send(), "1"), new LinkedList<>(), p1Received::add);
+        assertEquals(singletonList("1"), p1Received);
+        assertEquals(clock(0, new long[]{ 1, 1 }), p1.peek());
+
+        // Concurrent forks, before either has heard of the other, are given distinct indexes
+        final DenseVectorClock p3 = p1.fork(), p4 = p2.fork();
+        assertNotEquals(p3.processIndex(), p4.processIndex());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testForkIndexInUse()
+    {
+        final DenseVectorClockMessageService p1 = new DenseVectorClockMessageService(clock(0, 2), () -> 1);
+        p1.receive(message(clock(1, new long[]{ 0, 1 }), "1"), new LinkedList<>(), data -> {});
+        p1.fork();
+    }
+}
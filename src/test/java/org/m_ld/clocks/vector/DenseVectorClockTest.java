@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.vector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.m_ld.clocks.CausalOrder.*;
+import static org.m_ld.clocks.vector.DenseVectorClock.clock;
+
+public class DenseVectorClockTest
+{
+    @Test
+    public void testJoin()
+    {
+        final DenseVectorClock joined = clock(0, new long[]{ 1, 5, 2, 0, 0, 7, 1 })
+            .join(clock(1, new long[]{ 2, 3, 2, 4, 1, 6, 1, 0, 9 }));
+        assertEquals(0, joined.processIndex());
+        assertEquals(clock(0, new long[]{ 2, 5, 2, 4, 1, 7, 1, 0, 9 }), joined);
+    }
+
+    @Test
+    public void testAnyLtMasksSenderAndReceiver()
+    {
+        final long[] ticks = new long[11];
+        final DenseVectorClock local = clock(3, ticks);
+        ticks[3] = 1;
+        ticks[8] = 1;
+        assertFalse(local.anyLt(clock(8, ticks)));
+        ticks[9] = 1;
+        assertTrue(local.anyLt(clock(8, ticks)));
+        // Longer than the local clock
+        assertTrue(local.anyLt(clock(8, new long[]{ 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 })));
+        assertFalse(local.anyLt(clock(3, new long[]{ 0, 0, 0, 1 })));
+    }
+
+    @Test
+    public void testHasSeen()
+    {
+        assertTrue(clock(0, new long[]{ 1, 2 }).hasSeen(clock(1, new long[]{ 0, 2 })));
+        assertFalse(clock(0, new long[]{ 1, 1 }).hasSeen(clock(1, new long[]{ 0, 2 })));
+        assertFalse(clock(0, new long[]{ 1 }).hasSeen(clock(1, new long[]{ 0, 1 })));
+    }
+
+    @Test
+    public void testCompare()
+    {
+        final DenseVectorClock clock = clock(0, new long[]{ 1, 1, 1, 1, 1, 1 });
+        assertEquals(EQUAL, clock.compare(clock(1, new long[]{ 1, 1, 1, 1, 1, 1, 0 })));
+        assertEquals(BEFORE, clock.compare(clock.ticked().join(clock(1, new long[7])).ticked()));
+        assertEquals(BEFORE, clock.compare(clock(1, new long[]{ 1, 1, 1, 1, 1, 1, 1 })));
+        assertEquals(AFTER, clock.compare(clock(1, new long[]{ 1, 1, 1, 1, 0, 1 })));
+        assertEquals(CONCURRENT, clock.compare(clock(1, new long[]{ 1, 1, 1, 1, 0, 1, 1 })));
+    }
+}
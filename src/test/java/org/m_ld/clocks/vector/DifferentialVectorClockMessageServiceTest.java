@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) George Svarovsky 2020. All rights reserved.
+ * Licensed under the MIT License. See LICENSE file in the project root for full license information.
+ */
+
+package org.m_ld.clocks.vector;
+
+import org.junit.Test;
+import org.m_ld.clocks.Message;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+import static org.m_ld.clocks.Message.message;
+
+public class DifferentialVectorClockMessageServiceTest
+{
+    /**
+     * A process with both kinds of message service, which should behave identically
+     */
+    private static class Process
+    {
+        final SyncVectorClockMessageService<Integer> reference;
+        final DifferentialVectorClockMessageService<Integer> differential;
+        final Map<Integer, Queue<Wire>> inbound = new HashMap<>();
+        final LinkedList<Message<VectorClock<Integer>, Integer>>
+            referenceBuffer = new LinkedList<>(), differentialBuffer = new LinkedList<>();
+        final List<Integer> referenceDelivered = new ArrayList<>(), differentialDelivered = new ArrayList<>();
+
+        Process(VectorClock<Integer> time, Supplier<Integer> newPid)
+        {
+            reference = new SyncVectorClockMessageService<>(time, newPid);
+            differential = new DifferentialVectorClockMessageService<>(time, newPid);
+        }
+    }
+
+    /**
+     * A message on the wire, with both a full clock and a delta
+     */
+    private static class Wire
+    {
+        final Message<VectorClock<Integer>, Integer> full;
+        final VectorClockDelta<Integer> delta;
+
+        Wire(Message<VectorClock<Integer>, Integer> full, VectorClockDelta<Integer> delta)
+        {
+            this.full = full;
+            this.delta = delta;
+        }
+    }
+
+    @Test
+    public void testFirstDeltaIsFull()
+    {
+        final DifferentialVectorClockMessageService<String>
+            p1 = new DifferentialVectorClockMessageService<>(() -> "P1"),
+            p2 = new DifferentialVectorClockMessageService<>(() -> "P2");
+        final VectorClock<String> time = p1.send();
+        assertEquals(time.vector(), p1.delta("P2").entries());
+        assertEquals(time, p2.expand(new VectorClockDelta<>("P1", time.vector())));
+
+        // Nothing has changed but our own ticks
+        p1.send();
+        assertEquals(Collections.singletonMap("P1", 2L), p1.delta("P2").entries());
+        assertEquals(Collections.singletonMap("P1", 2L), p1.delta("P3").entries());
+    }
+
+    @Test
+    public void testSameAsFull()
+    {
+        final Random random = new Random(42);
+        // Both services of a process fork, so each new process ID is supplied twice
+        final AtomicInteger forks = new AtomicInteger();
+        final Supplier<Integer> newPid = () -> 1 + forks.getAndIncrement() / 2;
+        final List<Process> processes = new ArrayList<>();
+        processes.add(new Process(WireVectorClock.clock(0, 0L), newPid));
+        int data = 0;
+        for (int step = 0; step < 5000; step++)
+        {
+            final Process process = processes.get(random.nextInt(processes.size()));
+            final int action = random.nextInt(20);
+            if (action == 0 && processes.size() < 8)
+            {
+                final VectorClock<Integer> forked = process.reference.fork();
+                assertEquals(forked, process.differential.fork());
+                processes.add(new Process(forked, newPid));
+            }
+            else if (action < 8)
+            {
+                final VectorClock<Integer> time = process.reference.send();
+                assertEquals(time, process.differential.send());
+                final Message<VectorClock<Integer>, Integer> message = message(time, data++);
+                for (Process other : processes)
+                    if (other != process)
+                        other.inbound.computeIfAbsent(time.processId(), p -> new LinkedList<>())
+                            .add(new Wire(message, process.differential.delta(other.reference.processId())));
+            }
+            else
+            {
+                // Receive from a random sender, in FIFO order
+                final List<Queue<Wire>> channels = new ArrayList<>();
+                process.inbound.values().forEach(channel -> {
+                    if (!channel.isEmpty())
+                        channels.add(channel);
+                });
+                if (!channels.isEmpty())
+                {
+                    final Wire wire = channels.get(random.nextInt(channels.size())).poll();
+                    final VectorClock<Integer> expanded = process.differential.expand(wire.delta);
+                    assertEquals(wire.full.time(), expanded);
+                    assertTrue(process.reference.receive(
+                        wire.full, process.referenceBuffer, process.referenceDelivered::add));
+                    assertTrue(process.differential.receive(message(expanded, wire.full.data()),
+                                                            process.differentialBuffer,
+                                                            process.differentialDelivered::add));
+                }
+            }
+            assertEquals(process.reference.peek(), process.differential.peek());
+            assertEquals(process.referenceDelivered, process.differentialDelivered);
+        }
+        assertTrue(processes.stream().mapToLong(p -> p.differential.entriesElided()).sum() >
+                       processes.stream().mapToLong(p -> p.differential.entriesSent()).sum());
+    }
+}
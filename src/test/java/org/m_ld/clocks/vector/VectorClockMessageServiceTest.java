@@ -6,6 +6,7 @@
 package org.m_ld.clocks.vector;
 
 import org.junit.Test;
+import org.m_ld.clocks.Gap;
 import org.m_ld.clocks.Message;
 import org.m_ld.clocks.MessageService;
 
@@ -144,6 +145,70 @@ public class VectorClockMessageServiceTest
         assertEquals(3, p3Sum.get());
     }
 
+    @Test
+    public void testNewThirdPartyDependencyBuffers()
+    {
+        final VectorClockMessageService<String> p1Clock = new SyncVectorClockMessageService<>(() -> "P1");
+        final List<String> data = new ArrayList<>();
+        final LinkedList<Message<VectorClock<String>, String>> buffer = new LinkedList<>();
+        p1Clock.receive(message(clock("P2", 1L).with("P1", 0L), "1"), buffer, data::add);
+        // Sender has seen more of us, but nothing new from third parties
+        p1Clock.receive(message(clock("P2", 2L).with("P1", 1L), "2"), buffer, data::add);
+        // Sender has seen a third party that we have not
+        p1Clock.receive(message(clock("P2", 3L).with("P1", 1L).with("P3", 1L), "3"), buffer, data::add);
+
+        assertEquals(asList("1", "2"), data);
+        assertEquals(1, buffer.size());
+
+        p1Clock.receive(message(clock("P3", 1L), "4"), buffer, data::add);
+        assertEquals(asList("1", "2", "4", "3"), data);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testBufferGaps()
+    {
+        final VectorClockMessageService<String> p1Clock = new SyncVectorClockMessageService<>(() -> "P1");
+        final List<String> data = new ArrayList<>();
+        final LinkedList<Message<VectorClock<String>, String>> buffer = new LinkedList<>();
+        p1Clock.receive(message(clock("P3", 1L), "1"), buffer, data::add);
+        p1Clock.receive(message(clock("P2", 1L).with("P3", 3L), "2"), buffer, data::add);
+        p1Clock.receive(message(clock("P4", 1L).with("P3", 2L).with("P2", 1L), "3"), buffer, data::add);
+
+        assertEquals(asList(new Gap<>("P3", 1L, 3L), new Gap<>("P2", 0L, 1L)), p1Clock.missing(buffer));
+    }
+
+    @Test
+    public void testDuplicateIgnored()
+    {
+        final VectorClockMessageService<String> p1Clock = new SyncVectorClockMessageService<>(() -> "P1");
+        final List<String> data = new ArrayList<>();
+        final LinkedList<Message<VectorClock<String>, String>> buffer = new LinkedList<>();
+        final Message<VectorClock<String>, String> m1 = message(clock("P2", 1L), "1");
+        p1Clock.receive(m1, buffer, data::add);
+        p1Clock.receive(m1, buffer, data::add);
+
+        assertEquals(singletonList("1"), data);
+        assertEquals(1L, (long) p1Clock.vector().get("P1"));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testBufferedDuplicateDeliveredOnce()
+    {
+        final VectorClockMessageService<String> p1Clock = new SyncVectorClockMessageService<>(() -> "P1");
+        final List<String> data = new ArrayList<>();
+        final LinkedList<Message<VectorClock<String>, String>> buffer = new LinkedList<>();
+        final Message<VectorClock<String>, String> m2 = message(clock("P2", 1L).with("P3", 1L), "2");
+        p1Clock.receive(m2, buffer, data::add);
+        p1Clock.receive(m2, buffer, data::add);
+        assertEquals(2, buffer.size());
+
+        p1Clock.receive(message(clock("P3", 1L), "1"), buffer, data::add);
+        assertEquals(asList("1", "2"), data);
+        assertTrue(buffer.isEmpty());
+    }
+
     @Test
     public void testDeliverDoesNotIncrement()
     {
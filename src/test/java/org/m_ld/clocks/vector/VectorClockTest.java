@@ -6,8 +6,11 @@
 package org.m_ld.clocks.vector;
 
 import org.junit.Test;
+import org.m_ld.clocks.Gap;
 
+import static java.util.Collections.singletonList;
 import static org.junit.Assert.*;
+import static org.m_ld.clocks.CausalOrder.*;
 import static org.m_ld.clocks.vector.WireVectorClock.clock;
 
 public class VectorClockTest
@@ -18,6 +21,39 @@ public class VectorClockTest
         assertEquals(0L, clock("1", 1L).ticks("2"));
     }
 
+    @Test
+    public void testTotalTicks()
+    {
+        assertEquals(6L, clock("1", 1L).with("2", 2L).with("3", 3L).totalTicks());
+    }
+
+    @Test
+    public void testHasSeen()
+    {
+        assertTrue(clock("1", 1L).with("2", 2L).hasSeen(clock("2", 2L)));
+        assertFalse(clock("1", 1L).with("2", 1L).hasSeen(clock("2", 2L)));
+        assertFalse(clock("1", 1L).hasSeen(clock("2", 1L)));
+    }
+
+    @Test
+    public void testMissing()
+    {
+        assertEquals(singletonList(new Gap<>("3", 1L, 3L)),
+                     clock("1", 1L).with("2", 1L).with("3", 1L)
+                         .missing(clock("2", 5L).with("1", 2L).with("3", 3L).with("4", 0L)));
+    }
+
+    @Test
+    public void testCompare()
+    {
+        assertEquals(EQUAL, clock("1", 1L).with("2", 0L).compare(clock("2", 0L).with("1", 1L)));
+        assertEquals(EQUAL, clock("1", 1L).with("2", 0L).compare(clock("1", 1L)));
+        assertEquals(BEFORE, clock("1", 1L).compare(clock("2", 1L).with("1", 1L)));
+        assertEquals(AFTER, clock("2", 1L).with("1", 1L).compare(clock("1", 1L)));
+        assertEquals(CONCURRENT, clock("1", 1L).compare(clock("2", 1L)));
+        assertEquals(CONCURRENT, clock("1", 2L).with("2", 1L).compare(clock("2", 2L).with("1", 1L)));
+    }
+
     @Test
     public void testSelfNeverLt()
     {